@@ -0,0 +1,58 @@
+package eu.codedsakura.fabrictpa;
+
+import eu.codedsakura.mods.ConfigUtils;
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+    private File file;
+    private ConfigUtils config;
+    private ConfigUtils.ConfigKey<Integer> cooldownKey;
+    private ConfigUtils.ConfigKey<Boolean> bossBarKey;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("FabricTPA", ".properties");
+        file.delete();
+        config = new ConfigUtils(file, LogManager.getLogger("ConfigBenchmark"), Arrays.asList(new ConfigUtils.IConfigValue[] {
+                new ConfigUtils.IntegerConfigValue("timeout", 60, new ConfigUtils.IntegerConfigValue.IntLimits(0), null),
+                new ConfigUtils.IntegerConfigValue("stand-still", 5, new ConfigUtils.IntegerConfigValue.IntLimits(0), null),
+                new ConfigUtils.IntegerConfigValue("cooldown", 5, new ConfigUtils.IntegerConfigValue.IntLimits(0), null),
+                new ConfigUtils.IntegerConfigValue("max-requests", 10, new ConfigUtils.IntegerConfigValue.IntLimits(1), null),
+                new ConfigUtils.BooleanConfigValue("bossbar", true, null),
+        }));
+        cooldownKey = config.key("cooldown", Integer.class);
+        bossBarKey = config.key("bossbar", Boolean.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public int getValueByName() {
+        return (int) config.getValue("cooldown");
+    }
+
+    @Benchmark
+    public int getIntByKey() {
+        return config.getInt(cooldownKey);
+    }
+
+    @Benchmark
+    public boolean getBooleanByKey() {
+        return config.getBoolean(bossBarKey);
+    }
+}
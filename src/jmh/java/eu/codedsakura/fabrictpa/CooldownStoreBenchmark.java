@@ -0,0 +1,56 @@
+package eu.codedsakura.fabrictpa;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CooldownStoreBenchmark {
+    private static final long NOW = 1_000_000;
+    private static final long COOLDOWN = 5;
+
+    @Param({"10", "100", "1000"})
+    int players;
+
+    private UUID[] onCooldown, free;
+    private CooldownStore store;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        onCooldown = new UUID[players];
+        free = new UUID[players];
+        store = new CooldownStore();
+        for (int i = 0; i < players; i++) {
+            onCooldown[i] = UUID.randomUUID();
+            free[i] = UUID.randomUUID();
+            store.put(onCooldown[i], NOW, COOLDOWN);
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % players;
+        return next;
+    }
+
+    @Benchmark
+    public long checkCooldownHit() {
+        return store.getRemaining(onCooldown[nextIndex()], NOW, COOLDOWN);
+    }
+
+    @Benchmark
+    public long checkCooldownMiss() {
+        return store.getRemaining(free[nextIndex()], NOW, COOLDOWN);
+    }
+
+    @Benchmark
+    public void recordTeleport() {
+        store.put(onCooldown[nextIndex()], NOW, COOLDOWN);
+    }
+}
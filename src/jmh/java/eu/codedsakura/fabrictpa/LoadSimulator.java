@@ -0,0 +1,298 @@
+package eu.codedsakura.fabrictpa;
+
+import eu.codedsakura.mods.EventLoop;
+import eu.codedsakura.mods.TimingWheel;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Headless load simulator, run with `./gradlew simulate -Psim.args="--players=1000 --workload=event"`.
+// Synthetic players drive the same request store, cooldown table, timeout wheel, event loop and message templates
+// the commands use, and each tick is measured the way the server would run it.
+public class LoadSimulator {
+    private static final Logger logger = LogManager.getLogger("LoadSimulator");
+    private static final int TICKS_PER_SECOND = 20;
+    private static final int WARM_UP_UPDATE_INTERVAL = 5;
+    private static final int WARM_UP_PACKETS_PER_UPDATE = 3;
+
+    private final int playerCount, ticks, timeoutSeconds, standStillSeconds, cooldownSeconds, maxRequests;
+    private final double actionsPerTick, moveChance;
+    private final String workload;
+    private final Random random;
+
+    private final FabricTPA.PlayerRef[] players;
+    private final long[] packets;
+    private final PlayerNameIndex onlinePlayers = new PlayerNameIndex();
+    private final RequestStore activeTPA = new RequestStore(onlinePlayers);
+    private final CooldownStore recentRequests = new CooldownStore();
+    private final TimingWheel timeouts = new TimingWheel(logger);
+    private final EventLoop engine = new EventLoop(logger);
+    private final Messages messages;
+
+    private int warmUps = 0;
+    private FabricTPA.TPARequest[] warmUpRequests = new FabricTPA.TPARequest[16];
+    private int[] warmUpRemaining = new int[16], warmUpAge = new int[16];
+
+    private long created, accepted, denied, cancelled, timedOut, rejected, teleported;
+
+    public LoadSimulator(Map<String, String> options, Messages messages) {
+        this.playerCount = Integer.parseInt(options.getOrDefault("players", "1000"));
+        this.ticks = Integer.parseInt(options.getOrDefault("ticks", "6000"));
+        this.timeoutSeconds = Integer.parseInt(options.getOrDefault("timeout", "60"));
+        this.standStillSeconds = Integer.parseInt(options.getOrDefault("stand-still", "5"));
+        this.cooldownSeconds = Integer.parseInt(options.getOrDefault("cooldown", "5"));
+        this.maxRequests = Integer.parseInt(options.getOrDefault("max-requests", "10"));
+        this.actionsPerTick = Double.parseDouble(options.getOrDefault("actions-per-tick", "5"));
+        this.moveChance = Double.parseDouble(options.getOrDefault("move-chance", "0.02"));
+        this.workload = options.getOrDefault("workload", "random");
+        this.random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+        this.messages = messages;
+
+        players = new FabricTPA.PlayerRef[playerCount];
+        packets = new long[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            players[i] = new FabricTPA.PlayerRef(new UUID(0, i), "Player" + i);
+            onlinePlayers.add(players[i].uuid(), players[i].name(), 0);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        Path dir = Files.createTempDirectory("FabricTPA");
+        Path file = dir.resolve("messages.properties");
+        try {
+            new LoadSimulator(options, Messages.load(file, logger)).run();
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    public void run() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        int peakThreads = threadsBefore;
+        long[] tickNanos = new long[ticks];
+        long allocated = 0;
+
+        for (int tick = 0; tick < ticks; tick++) {
+            issueCommands(tick);
+
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            engine.drain();
+            timeouts.tick();
+            tickWarmUps();
+            tickNanos[tick] = System.nanoTime() - start;
+            allocated += threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+        }
+
+        report(tickNanos, allocated, threadsBefore, peakThreads);
+    }
+
+    private void issueCommands(int tick) {
+        if (workload.equals("event")) {
+            // everyone asks to join the host at once, the host accepts them all a few seconds later
+            if (tick == 0) for (int i = 1; i < playerCount; i++) submit(i, 0, this::tpaInit);
+            if (tick == 5 * TICKS_PER_SECOND) for (int i = 1; i < playerCount; i++) submit(0, i, this::tpaAccept);
+            return;
+        }
+        int actions = (int) actionsPerTick + (random.nextDouble() < actionsPerTick % 1 ? 1 : 0);
+        for (int a = 0; a < actions; a++) {
+            int source = random.nextInt(playerCount), target = random.nextInt(playerCount);
+            switch (random.nextInt(5)) {
+                case 0 -> submit(source, target, this::tpaInit);
+                case 1 -> submit(source, target, this::tpaHere);
+                case 2 -> submit(source, -1, this::tpaAccept);
+                case 3 -> submit(source, -1, this::tpaDeny);
+                default -> submit(source, -1, this::tpaCancel);
+            }
+        }
+    }
+
+    private void submit(int source, int target, SimCommand command) {
+        engine.execute(() -> command.run(players[source], target < 0 ? null : players[target]));
+    }
+
+    private void send(FabricTPA.PlayerRef player, Text text) {
+        if (text != null) packets[(int) player.uuid().getLeastSignificantBits()]++;
+    }
+
+    private void tpaInit(FabricTPA.PlayerRef tFrom, FabricTPA.PlayerRef tTo) {
+        request(tFrom, tTo, false);
+    }
+
+    private void tpaHere(FabricTPA.PlayerRef tTo, FabricTPA.PlayerRef tFrom) {
+        request(tFrom, tTo, true);
+    }
+
+    private void request(FabricTPA.PlayerRef tFrom, FabricTPA.PlayerRef tTo, boolean tpaHere) {
+        FabricTPA.PlayerRef requester = tpaHere ? tTo : tFrom;
+        if (tFrom.equals(tTo)) {
+            send(requester, messages.tpaSelf.format());
+            rejected++;
+            return;
+        }
+        long remaining = recentRequests.getRemaining(tFrom.uuid(), timeouts.getCurrentTick() / TICKS_PER_SECOND, cooldownSeconds);
+        if (remaining > 0) {
+            send(tFrom, messages.cooldown.format(String.valueOf(remaining)));
+            rejected++;
+            return;
+        }
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(tFrom, tTo, tpaHere, timeoutSeconds * TICKS_PER_SECOND);
+        if (activeTPA.contains(tr)) {
+            send(requester, messages.duplicate.format());
+            rejected++;
+            return;
+        }
+        if (activeTPA.countOutgoing(requester.uuid()) >= maxRequests) {
+            send(requester, messages.tooMany.format());
+            rejected++;
+            return;
+        }
+        tr.setTimeoutCallback(timeouts, () -> {
+            activeTPA.remove(tr);
+            timedOut++;
+            send(tr.rFromRef, (tpaHere ? messages.tpaHereTimeoutSender : messages.tpaTimeoutSender).format(tr.rToRef.name()));
+            send(tr.rToRef, (tpaHere ? messages.tpaHereTimeoutReceiver : messages.tpaTimeoutReceiver).format(tr.rFromRef.name()));
+        });
+        activeTPA.add(tr);
+        created++;
+        String timeoutText = String.valueOf(timeoutSeconds);
+        send(tr.rFromRef, (tpaHere ? messages.tpaHereSent : messages.tpaSent).format(tr.rToRef.name(), timeoutText));
+        send(tr.rToRef, (tpaHere ? messages.tpaHereReceived : messages.tpaReceived).format(tr.rFromRef.name(), timeoutText));
+    }
+
+    private FabricTPA.TPARequest resolve(Collection<FabricTPA.TPARequest> candidates, FabricTPA.PlayerRef self, boolean incoming) {
+        if (candidates.size() > 1) {
+            MutableText text = (incoming ? messages.acceptMultiple : messages.cancelMultiple).format();
+            for (FabricTPA.TPARequest tr : candidates) {
+                text.append((incoming ? messages.acceptMultipleEntry : messages.cancelMultipleEntry)
+                        .format(incoming ? tr.rFromRef.name() : tr.rToRef.name()));
+            }
+            send(self, text);
+            return null;
+        }
+        if (candidates.isEmpty()) {
+            send(self, messages.noActiveRequests.format());
+            return null;
+        }
+        return candidates.iterator().next();
+    }
+
+    private FabricTPA.TPARequest find(FabricTPA.PlayerRef self, FabricTPA.PlayerRef other, boolean incoming) {
+        if (other == null) {
+            return resolve(incoming ? activeTPA.getIncoming(self.uuid()) : activeTPA.getOutgoing(self.uuid()), self, incoming);
+        }
+        FabricTPA.TPARequest tr = incoming ? activeTPA.get(other.uuid(), self.uuid()) : activeTPA.get(self.uuid(), other.uuid());
+        if (tr == null) send(self, messages.noRequest.format());
+        return tr;
+    }
+
+    private void tpaAccept(FabricTPA.PlayerRef rTo, FabricTPA.PlayerRef rFrom) {
+        FabricTPA.TPARequest tr = find(rTo, rFrom, true);
+        if (tr == null) return;
+        tr.cancelTimeout();
+        activeTPA.remove(tr);
+        accepted++;
+        startWarmUp(tr);
+        send(tr.rToRef, messages.acceptReceiver.format());
+        send(tr.rFromRef, messages.acceptSender.format(tr.rToRef.name()));
+    }
+
+    private void tpaDeny(FabricTPA.PlayerRef rTo, FabricTPA.PlayerRef rFrom) {
+        FabricTPA.TPARequest tr = find(rTo, rFrom, true);
+        if (tr == null) return;
+        tr.cancelTimeout();
+        activeTPA.remove(tr);
+        denied++;
+        send(tr.rToRef, messages.denyReceiver.format());
+        send(tr.rFromRef, messages.denySender.format(tr.rToRef.name()));
+    }
+
+    private void tpaCancel(FabricTPA.PlayerRef rFrom, FabricTPA.PlayerRef rTo) {
+        FabricTPA.TPARequest tr = find(rFrom, rTo, false);
+        if (tr == null) return;
+        tr.cancelTimeout();
+        activeTPA.remove(tr);
+        cancelled++;
+        send(tr.rFromRef, messages.cancelSender.format());
+        send(tr.rToRef, messages.cancelReceiver.format(tr.rFromRef.name()));
+    }
+
+    private void startWarmUp(FabricTPA.TPARequest tr) {
+        if (warmUps == warmUpRequests.length) {
+            int capacity = warmUps * 2;
+            warmUpRequests = Arrays.copyOf(warmUpRequests, capacity);
+            warmUpRemaining = Arrays.copyOf(warmUpRemaining, capacity);
+            warmUpAge = Arrays.copyOf(warmUpAge, capacity);
+        }
+        warmUpRequests[warmUps] = tr;
+        warmUpRemaining[warmUps] = standStillSeconds * TICKS_PER_SECOND;
+        warmUpAge[warmUps] = 0;
+        warmUps++;
+    }
+
+    private void tickWarmUps() {
+        for (int i = warmUps - 1; i >= 0; i--) {
+            FabricTPA.TPARequest tr = warmUpRequests[i];
+            if (warmUpRemaining[i] <= 0) {
+                teleported++;
+                recentRequests.put(tr.tFromRef.uuid(), timeouts.getCurrentTick() / TICKS_PER_SECOND, cooldownSeconds);
+                int last = --warmUps;
+                warmUpRequests[i] = warmUpRequests[last];
+                warmUpRemaining[i] = warmUpRemaining[last];
+                warmUpAge[i] = warmUpAge[last];
+                warmUpRequests[last] = null;
+                continue;
+            }
+            if (random.nextDouble() < moveChance) warmUpRemaining[i] = standStillSeconds * TICKS_PER_SECOND;
+            else warmUpRemaining[i]--;
+            if (warmUpAge[i]++ % WARM_UP_UPDATE_INTERVAL == 0) {
+                packets[(int) tr.tFromRef.uuid().getLeastSignificantBits()] += WARM_UP_PACKETS_PER_UPDATE;
+            }
+        }
+    }
+
+    private void report(long[] tickNanos, long allocated, int threadsBefore, int peakThreads) {
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long nanos : sorted) total += nanos;
+        long totalPackets = 0, maxPackets = 0;
+        for (long count : packets) {
+            totalPackets += count;
+            maxPackets = Math.max(maxPackets, count);
+        }
+
+        System.out.printf("workload=%s players=%d ticks=%d%n", workload, playerCount, ticks);
+        System.out.printf("requests: created=%d accepted=%d denied=%d cancelled=%d timed-out=%d rejected=%d teleported=%d open=%d%n",
+                created, accepted, denied, cancelled, timedOut, rejected, teleported, activeTPA.size());
+        System.out.printf("tick cost (us): mean=%.2f p50=%.2f p99=%.2f max=%.2f%n",
+                total / 1e3 / ticks, percentile(sorted, .5) / 1e3, percentile(sorted, .99) / 1e3, sorted[sorted.length - 1] / 1e3);
+        System.out.printf("allocated: %.1f KiB total, %.1f bytes/tick%n", allocated / 1024.0, (double) allocated / ticks);
+        System.out.printf("threads: before=%d peak=%d%n", threadsBefore, peakThreads);
+        System.out.printf("packets: total=%d per-player mean=%.2f max=%d%n", totalPackets, (double) totalPackets / playerCount, maxPackets);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private interface SimCommand {
+        void run(FabricTPA.PlayerRef source, FabricTPA.PlayerRef target);
+    }
+}
@@ -0,0 +1,62 @@
+package eu.codedsakura.fabrictpa;
+
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import org.apache.logging.log4j.LogManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessagesBenchmark {
+    private static final String NAME = "Player42";
+    private static final int TIMEOUT = 60;
+
+    private Path dir;
+    private Messages messages;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("FabricTPA");
+        messages = Messages.load(dir.resolve("messages.properties"), LogManager.getLogger("MessagesBenchmark"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir.resolve("messages.properties"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public Text tpaReceivedTemplate() {
+        return messages.tpaReceived.format(NAME, String.valueOf(TIMEOUT));
+    }
+
+    // the tree tpaInit built per call before message templates
+    @Benchmark
+    public Text tpaReceivedInline() {
+        return Text.literal(NAME).formatted(Formatting.AQUA)
+                .append(Text.literal(" has requested to teleport to you!").formatted(Formatting.LIGHT_PURPLE))
+                .append(Text.literal("\nTo accept type ").formatted(Formatting.LIGHT_PURPLE))
+                .append(Text.literal("/tpaaccept [<player>]").styled(s ->
+                        s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpaaccept " + NAME))
+                                .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpaaccept " + NAME)))
+                                .withColor(Formatting.GOLD)))
+                .append(Text.literal("\nTo deny type ").formatted(Formatting.LIGHT_PURPLE))
+                .append(Text.literal("/tpadeny [<player>]").styled(s ->
+                        s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpadeny " + NAME))
+                                .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpadeny " + NAME)))
+                                .withColor(Formatting.GOLD)))
+                .append(Text.literal("\nThis request will timeout in " + TIMEOUT + " seconds.").formatted(Formatting.LIGHT_PURPLE));
+    }
+}
@@ -0,0 +1,60 @@
+package eu.codedsakura.fabrictpa;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestStoreBenchmark {
+    @Param({"10", "100", "1000"})
+    int players;
+
+    private FabricTPA.PlayerRef[] refs;
+    private RequestStore store;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        refs = new FabricTPA.PlayerRef[players];
+        for (int i = 0; i < players; i++) refs[i] = new FabricTPA.PlayerRef(UUID.randomUUID(), "Player" + i);
+        store = new RequestStore(new PlayerNameIndex());
+        for (int i = 0; i < players; i++) store.add(new FabricTPA.TPARequest(refs[i], refs[(i + 1) % players], false, 1200));
+    }
+
+    private int nextIndex() {
+        next = (next + 1) % players;
+        return next;
+    }
+
+    @Benchmark
+    public boolean duplicateCheck() {
+        int i = nextIndex();
+        return store.contains(new FabricTPA.TPARequest(refs[i], refs[(i + 1) % players], false, 1200));
+    }
+
+    @Benchmark
+    public FabricTPA.TPARequest lookup() {
+        int i = nextIndex();
+        return store.get(refs[i].uuid(), refs[(i + 1) % players].uuid());
+    }
+
+    @Benchmark
+    public void incomingCandidates(Blackhole blackhole) {
+        for (FabricTPA.TPARequest tr : store.getIncoming(refs[nextIndex()].uuid())) blackhole.consume(tr);
+    }
+
+    @Benchmark
+    public boolean addAndRemove() {
+        int i = nextIndex();
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(refs[i], refs[(i + 2) % players], true, 1200);
+        store.add(tr);
+        return store.remove(tr);
+    }
+}
@@ -0,0 +1,70 @@
+package eu.codedsakura.fabrictpa;
+
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestionsBenchmark {
+    private static final String COMMAND = "tpa ";
+
+    @Param({"10", "100", "1000"})
+    int players;
+
+    @Param({"", "player1"})
+    String prefix;
+
+    private List<String> names;
+    private PlayerNameIndex index;
+    private RequestStore store;
+    private UUID receiver;
+    private String input;
+
+    @Setup
+    public void setup() {
+        names = new ArrayList<>();
+        index = new PlayerNameIndex();
+        store = new RequestStore(index);
+        FabricTPA.PlayerRef[] refs = new FabricTPA.PlayerRef[players];
+        for (int i = 0; i < players; i++) {
+            refs[i] = new FabricTPA.PlayerRef(UUID.randomUUID(), "Player" + i);
+            names.add(refs[i].name());
+            index.add(refs[i].uuid(), refs[i].name(), 0);
+        }
+        // a tenth of the server has asked to teleport to the first player
+        for (int i = 1; i < players; i += 10) store.add(new FabricTPA.TPARequest(refs[i], refs[0], false, 1200));
+        receiver = refs[0].uuid();
+        input = COMMAND + prefix;
+    }
+
+    @Benchmark
+    public Suggestions filterSuggestionsByInput() {
+        return FabricTPA.filterSuggestionsByInput(new SuggestionsBuilder(input, COMMAND.length()), names).join();
+    }
+
+    @Benchmark
+    public Suggestions initSuggestionsFromIndex() {
+        SuggestionsBuilder builder = new SuggestionsBuilder(input, COMMAND.length());
+        for (PlayerNameIndex.Entry entry : index.withPrefix(builder.getRemaining())) {
+            if (entry.involvement == 0) builder.suggest(entry.name);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public Suggestions incomingSuggestions() {
+        SuggestionsBuilder builder = new SuggestionsBuilder(input, COMMAND.length());
+        store.getIncomingNames(receiver, builder.getRemaining()).forEach(builder::suggest);
+        return builder.build();
+    }
+}
@@ -0,0 +1,209 @@
+package eu.codedsakura.fabrictpa;
+
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.util.Identifier;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// NDJSON log of request activity, one line per event.
+// The server thread only fills pre-allocated slots of a single-producer ring, the writer thread formats and appends them in batches.
+// When the writer falls behind, new events are dropped and counted instead of blocking the tick.
+class AuditLog {
+    static final byte REQUEST = 0, ACCEPT = 1, DENY = 2, CANCEL = 3, TIMEOUT = 4, TELEPORT = 5;
+    private static final String[] EVENTS = {"request", "accept", "deny", "cancel", "timeout", "teleport"};
+    private static final int CAPACITY = 1 << 13;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final String ACTIVE_NAME = "fabrictpa-audit.ndjson";
+
+    private final Path dir;
+    private final Logger logger;
+    private final long maxBytes;
+    private final Slot[] ring = new Slot[CAPACITY];
+    private volatile long head, tail;
+    private final AtomicLong dropped = new AtomicLong();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FabricTPA-audit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // writer thread state
+    private final StringBuilder batch = new StringBuilder(16 * 1024);
+    private OutputStream out;
+    private long size;
+    private LocalDate openedOn;
+
+    AuditLog(Path dir, Logger logger, long maxBytes) {
+        this.dir = dir;
+        this.logger = logger;
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < CAPACITY; i++) ring[i] = new Slot();
+    }
+
+    void open() {
+        try {
+            Files.createDirectories(dir);
+            openActive();
+        } catch (IOException e) {
+            logger.error("Failed to open audit log, teleport activity won't be logged!", e);
+            return;
+        }
+        writer.scheduleWithFixedDelay(this::flushSafely, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Server thread only. tFrom and tTo are null when that player isn't on this node.
+    void record(byte type, FabricTPA.TPARequest tr, @Nullable ServerPlayerEntity tFrom, @Nullable ServerPlayerEntity tTo) {
+        long h = head;
+        if (h - tail >= CAPACITY) {
+            dropped.incrementAndGet();
+            return;
+        }
+        Slot slot = ring[(int) h & (CAPACITY - 1)];
+        slot.type = type;
+        slot.time = System.currentTimeMillis();
+        slot.tpaHere = tr.tpaHere;
+        slot.from.set(tr.tFromRef, tFrom);
+        slot.to.set(tr.tToRef, tTo);
+        head = h + 1;
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) logger.warn("Audit log writer didn't stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+        try {
+            if (out != null) out.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close audit log: {}", e.getMessage());
+        }
+        out = null;
+    }
+
+    private synchronized void flushSafely() {
+        if (out == null) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.error("Failed to write audit log!", e);
+        }
+    }
+
+    private void flush() throws IOException {
+        batch.setLength(0);
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+            batch.append("{\"time\":\"").append(Instant.ofEpochMilli(System.currentTimeMillis())).append("\",\"event\":\"dropped\",\"count\":").append(lost).append("}\n");
+        }
+        long t = tail, h = head;
+        for (; t < h; t++) append(ring[(int) t & (CAPACITY - 1)]);
+        tail = t;
+        if (batch.length() == 0) return;
+
+        if (size >= maxBytes || !LocalDate.now().equals(openedOn)) rotate();
+        byte[] bytes = batch.toString().getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        out.flush();
+        size += bytes.length;
+    }
+
+    private void append(Slot slot) {
+        batch.append("{\"time\":\"").append(Instant.ofEpochMilli(slot.time))
+                .append("\",\"event\":\"").append(EVENTS[slot.type])
+                .append("\",\"tpaHere\":").append(slot.tpaHere)
+                .append(",\"from\":");
+        slot.from.appendTo(batch);
+        batch.append(",\"to\":");
+        slot.to.appendTo(batch);
+        batch.append("}\n");
+    }
+
+    // The active file is renamed after the day it was started on, e.g. fabrictpa-audit-2022-06-01-1.ndjson
+    private void rotate() throws IOException {
+        out.close();
+        Path active = dir.resolve(ACTIVE_NAME);
+        Path rotated;
+        int n = 1;
+        do {
+            rotated = dir.resolve("fabrictpa-audit-" + openedOn + "-" + n++ + ".ndjson");
+        } while (Files.exists(rotated));
+        Files.move(active, rotated);
+        openActive();
+    }
+
+    private void openActive() throws IOException {
+        Path active = dir.resolve(ACTIVE_NAME);
+        if (Files.exists(active)) {
+            size = Files.size(active);
+            openedOn = LocalDate.ofInstant(Files.getLastModifiedTime(active).toInstant(), ZoneId.systemDefault());
+        } else {
+            size = 0;
+            openedOn = LocalDate.now();
+        }
+        out = Files.newOutputStream(active, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') builder.append('\\').append(c);
+            else if (c < 0x20) builder.append(String.format("\\u%04x", (int) c));
+            else builder.append(c);
+        }
+        builder.append('"');
+    }
+
+    private static class Slot {
+        byte type;
+        long time;
+        boolean tpaHere;
+        final Position from = new Position(), to = new Position();
+    }
+
+    // Everything here is immutable or primitive, so filling a slot doesn't allocate
+    private static class Position {
+        FabricTPA.PlayerRef player;
+        Identifier dimension;
+        double x, y, z;
+
+        void set(FabricTPA.PlayerRef player, @Nullable ServerPlayerEntity entity) {
+            this.player = player;
+            dimension = entity == null ? null : entity.getWorld().getRegistryKey().getValue();
+            if (entity != null) {
+                x = entity.getX();
+                y = entity.getY();
+                z = entity.getZ();
+            }
+        }
+
+        void appendTo(StringBuilder builder) {
+            builder.append("{\"uuid\":\"").append(player.uuid()).append("\",\"name\":");
+            appendString(builder, player.name());
+            if (dimension != null) {
+                builder.append(",\"dimension\":\"").append(dimension)
+                        .append("\",\"x\":").append(x)
+                        .append(",\"y\":").append(y)
+                        .append(",\"z\":").append(z);
+            }
+            builder.append('}');
+        }
+    }
+}
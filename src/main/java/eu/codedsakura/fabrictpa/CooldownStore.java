@@ -0,0 +1,114 @@
+package eu.codedsakura.fabrictpa;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// Open-addressing UUID -> timestamp map with lazy eviction, memory is bounded by players still on cooldown.
+class CooldownStore {
+    private static final int MIN_CAPACITY = 16;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] mostSig, leastSig, stamps;
+    private int mask, size;
+
+    public CooldownStore() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public long getRemaining(UUID uuid, long now, long cooldown) {
+        int slot = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (slot < 0) return 0;
+        long diff = now - stamps[slot];
+        if (diff >= cooldown) {
+            removeAt(slot);
+            return 0;
+        }
+        return cooldown - diff;
+    }
+
+    public void put(UUID uuid, long now, long cooldown) {
+        long msb = uuid.getMostSignificantBits(), lsb = uuid.getLeastSignificantBits();
+        int slot = find(msb, lsb);
+        if (slot >= 0) {
+            stamps[slot] = now;
+            return;
+        }
+        if ((size + 1) * 2 > stamps.length) rehash(now, cooldown);
+        insert(msb, lsb, now);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    public int capacity() {
+        return stamps.length;
+    }
+
+    private int find(long msb, long lsb) {
+        for (int slot = hash(msb, lsb) & mask; stamps[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (mostSig[slot] == msb && leastSig[slot] == lsb) return slot;
+        }
+        return -1;
+    }
+
+    private void insert(long msb, long lsb, long stamp) {
+        int slot = hash(msb, lsb) & mask;
+        while (stamps[slot] != EMPTY) slot = (slot + 1) & mask;
+        mostSig[slot] = msb;
+        leastSig[slot] = lsb;
+        stamps[slot] = stamp;
+        size++;
+    }
+
+    private void removeAt(int slot) {
+        // backward-shift deletion keeps probe chains intact without tombstones
+        int gap = slot;
+        for (int next = (gap + 1) & mask; stamps[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hash(mostSig[next], leastSig[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                mostSig[gap] = mostSig[next];
+                leastSig[gap] = leastSig[next];
+                stamps[gap] = stamps[next];
+                gap = next;
+            }
+        }
+        stamps[gap] = EMPTY;
+        size--;
+    }
+
+    private void rehash(long now, long cooldown) {
+        long[] oldMostSig = mostSig, oldLeastSig = leastSig, oldStamps = stamps;
+        int live = 0;
+        for (long stamp : oldStamps) {
+            if (stamp != EMPTY && now - stamp < cooldown) live++;
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < (live + 1) * 4) capacity <<= 1;
+        allocate(capacity);
+        for (int i = 0; i < oldStamps.length; i++) {
+            if (oldStamps[i] != EMPTY && now - oldStamps[i] < cooldown) insert(oldMostSig[i], oldLeastSig[i], oldStamps[i]);
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSig = new long[capacity];
+        leastSig = new long[capacity];
+        stamps = new long[capacity];
+        Arrays.fill(stamps, EMPTY);
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
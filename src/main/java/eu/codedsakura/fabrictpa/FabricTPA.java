@@ -3,74 +3,115 @@ package eu.codedsakura.fabrictpa;
 import com.mojang.brigadier.arguments.ArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.context.ParsedCommandNode;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import com.mojang.brigadier.suggestion.Suggestions;
 import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import eu.codedsakura.mods.ConfigUtils;
+import eu.codedsakura.mods.EventLoop;
+import eu.codedsakura.mods.Histogram;
+import eu.codedsakura.mods.LoadMonitor;
+import eu.codedsakura.mods.RateLimiter;
 import eu.codedsakura.mods.TeleportUtils;
+import eu.codedsakura.mods.TextTemplate;
+import eu.codedsakura.mods.TextUtils;
+import eu.codedsakura.mods.TimingWheel;
 import eu.codedsakura.mods.fpapiutils.FPAPIUtilsWrapper;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.command.argument.EntityArgumentType;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.network.ServerPlayerEntity;
-import net.minecraft.text.ClickEvent;
-import net.minecraft.text.HoverEvent;
 import net.minecraft.text.MutableText;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
+import net.minecraft.util.WorldSavePath;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static net.minecraft.command.argument.EntityArgumentType.getPlayer;
+import static net.minecraft.command.argument.EntityArgumentType.getPlayers;
 import static net.minecraft.server.command.CommandManager.argument;
 import static net.minecraft.server.command.CommandManager.literal;
 
 public class FabricTPA implements ModInitializer {
     private static final Logger logger = LogManager.getLogger("FabricTPA");
     private static final String CONFIG_NAME = "FabricTPA.properties";
-
-    private final ArrayList<TPARequest> activeTPA = new ArrayList<>();
-    private final HashMap<UUID, Long> recentRequests = new HashMap<>();
+    private static final String MESSAGES_NAME = "FabricTPA.messages.properties";
+    private static final String JOURNAL_NAME = "fabrictpa.journal";
+    private static final int MAX_DEFERRED_NOTICES = 1024;
+    private static final int NOTICES_PER_TICK = 20;
+
+    private final PlayerNameIndex onlinePlayers = new PlayerNameIndex();
+    private final RequestStore activeTPA = new RequestStore(onlinePlayers);
+    private final CooldownStore recentRequests = new CooldownStore();
+    private final TimingWheel timeouts = new TimingWheel(logger);
+    private final EventLoop engine = new EventLoop(logger);
+    private final TPAStats stats = new TPAStats(logger);
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final LoadMonitor load = new LoadMonitor();
+    private final ArrayDeque<Notice> deferredNotices = new ArrayDeque<>();
+    private final HashMap<UUID, Integer> sessionSlots = new HashMap<>();
+    private MinecraftServer server;
+    private boolean stopping;
+    private RequestJournal journal;
+    @Nullable
+    private AuditLog audit;
+    @Nullable
+    private TPATransport transport;
+    private final HashMap<UUID, RemotePlayer> remotePlayers = new HashMap<>();
+    private final HashMap<String, RemotePlayer> remoteByName = new HashMap<>();
+    private final HashMap<UUID, UUID> pendingArrivals = new HashMap<>();
+    private final ArrayDeque<QueuedTeleport> teleportQueue = new ArrayDeque<>();
     private ConfigUtils config;
+    private Messages messages;
+    private ConfigUtils.ConfigKey<Integer> timeoutKey, standStillKey, cooldownKey, maxRequestsKey, transportPortKey, teleportsPerTickKey, degradeMsptKey, auditMaxSizeKey;
+    private ConfigUtils.ConfigKey<Integer> rateLimitBurstKey, rateLimitPerMinuteKey, globalRateLimitKey;
+    private ConfigUtils.ConfigKey<String> transportPeersKey, transportSecretKey;
+    private ConfigUtils.ConfigKey<Double> movementToleranceKey;
+    private ConfigUtils.ConfigKey<Boolean> bossBarKey, cancelOnDamageKey, cancelOnCombatKey, journalMmapKey, auditLogKey;
+    private ConfigUtils.ConfigKey<TPACooldownMode> cooldownModeKey;
 
     @Nullable
-    private static CompletableFuture<Suggestions> filterSuggestionsByInput(SuggestionsBuilder builder, List<String> values) {
+    static CompletableFuture<Suggestions> filterSuggestionsByInput(SuggestionsBuilder builder, List<String> values) {
         String start = builder.getRemaining().toLowerCase();
         values.stream().filter(s -> s.toLowerCase().startsWith(start)).forEach(builder::suggest);
         return builder.buildFuture();
     }
 
     private CompletableFuture<Suggestions> getTPAInitSuggestions(CommandContext<ServerCommandSource> context, SuggestionsBuilder builder) {
-        ServerCommandSource scs = context.getSource();
-
-        List<String> activeTargets = Stream.concat(
-                activeTPA.stream().map(tpaRequest -> tpaRequest.rTo.getEntityName()),
-                activeTPA.stream().map(tpaRequest -> tpaRequest.rFrom.getEntityName())
-        ).toList();
-        List<String> others = Arrays.stream(scs.getServer().getPlayerNames())
-                .filter(s -> !s.equals(scs.getName()) && !activeTargets.contains(s))
-                .collect(Collectors.toList());
-        return filterSuggestionsByInput(builder, others);
+        String self = context.getSource().getName();
+        for (PlayerNameIndex.Entry entry : onlinePlayers.withPrefix(builder.getRemaining())) {
+            if (entry.involvement == 0 && !entry.name.equals(self)) builder.suggest(entry.name);
+        }
+        return builder.buildFuture();
     }
 
     private CompletableFuture<Suggestions> getTPATargetSuggestions(CommandContext<ServerCommandSource> context, SuggestionsBuilder builder) {
-        List<String> activeTargets = activeTPA.stream().map(tpaRequest -> tpaRequest.rFrom.getEntityName()).collect(Collectors.toList());
-        return filterSuggestionsByInput(builder, activeTargets);
+        if (!(context.getSource().getEntity() instanceof ServerPlayerEntity player)) return builder.buildFuture();
+        activeTPA.getIncomingNames(player.getUuid(), builder.getRemaining()).forEach(builder::suggest);
+        return builder.buildFuture();
     }
 
     private CompletableFuture<Suggestions> getTPASenderSuggestions(CommandContext<ServerCommandSource> context, SuggestionsBuilder builder) {
-        List<String> activeTargets = activeTPA.stream().map(tpaRequest -> tpaRequest.rTo.getEntityName()).collect(Collectors.toList());
-        return filterSuggestionsByInput(builder, activeTargets);
+        if (!(context.getSource().getEntity() instanceof ServerPlayerEntity player)) return builder.buildFuture();
+        activeTPA.getOutgoingNames(player.getUuid(), builder.getRemaining()).forEach(builder::suggest);
+        return builder.buildFuture();
     }
 
     static class CooldownModeConfigValue extends ConfigUtils.IConfigValue<TPACooldownMode> {
@@ -108,332 +149,856 @@ public class FabricTPA implements ModInitializer {
                         new ConfigUtils.Command("Stand-Still time is %s seconds", "Stand-Still time set to %s seconds")),
                 new ConfigUtils.IntegerConfigValue("cooldown", 5, new ConfigUtils.IntegerConfigValue.IntLimits(0),
                         new ConfigUtils.Command("Cooldown is %s seconds", "Cooldown set to %s seconds")),
+                new ConfigUtils.IntegerConfigValue("max-requests", 10, new ConfigUtils.IntegerConfigValue.IntLimits(1),
+                        new ConfigUtils.Command("Max ongoing requests per player is %s", "Max ongoing requests per player set to %s")),
+                new ConfigUtils.IntegerConfigValue("rate-limit-burst", 5, new ConfigUtils.IntegerConfigValue.IntLimits(1),
+                        new ConfigUtils.Command("Players can send %s commands in a burst", "Players can now send %s commands in a burst")),
+                new ConfigUtils.IntegerConfigValue("rate-limit-per-minute", 20, new ConfigUtils.IntegerConfigValue.IntLimits(0),
+                        new ConfigUtils.Command("Players can send %s commands per minute", "Players can now send %s commands per minute")),
+                new ConfigUtils.IntegerConfigValue("global-rate-limit", 50, new ConfigUtils.IntegerConfigValue.IntLimits(0),
+                        new ConfigUtils.Command("Server-wide limit is %s commands per second", "Server-wide limit set to %s commands per second")),
+                new ConfigUtils.IntegerConfigValue("teleports-per-tick", 20, new ConfigUtils.IntegerConfigValue.IntLimits(1),
+                        new ConfigUtils.Command("At most %s teleports happen per tick", "At most %s teleports will happen per tick")),
+                new ConfigUtils.IntegerConfigValue("degrade-mspt", 50, new ConfigUtils.IntegerConfigValue.IntLimits(0),
+                        new ConfigUtils.Command("Cosmetics are reduced above %s MSPT", "Cosmetics will be reduced above %s MSPT")),
+                new ConfigUtils.DoubleConfigValue("movement-tolerance", 0.1, new ConfigUtils.DoubleConfigValue.DoubleLimits(0),
+                        new ConfigUtils.Command("Movement tolerance is %s blocks", "Movement tolerance set to %s blocks")),
+                new ConfigUtils.BooleanConfigValue("cancel-on-damage", false,
+                        new ConfigUtils.Command("Cancel on damage: %s", "Cancel on damage is now: %s")),
+                new ConfigUtils.BooleanConfigValue("cancel-on-combat", false,
+                        new ConfigUtils.Command("Cancel on combat: %s", "Cancel on combat is now: %s")),
                 new ConfigUtils.BooleanConfigValue("bossbar", true,
                         new ConfigUtils.Command("Boss-Bar on: %s", "Boss-Bar is now: %s")),
                 new CooldownModeConfigValue("cooldown-mode", TPACooldownMode.WhoTeleported,
-                        new ConfigUtils.Command("Cooldown Mode is %s", "Cooldown Mode set to %s"))
+                        new ConfigUtils.Command("Cooldown Mode is %s", "Cooldown Mode set to %s")),
+                new ConfigUtils.BooleanConfigValue("journal-mmap", false,
+                        new ConfigUtils.Command("Memory-mapped journal: %s", "Memory-mapped journal is now: %s (applies after restart)")),
+                new ConfigUtils.BooleanConfigValue("audit-log", true,
+                        new ConfigUtils.Command("Audit log: %s", "Audit log is now: %s (applies after restart)")),
+                new ConfigUtils.IntegerConfigValue("audit-log-max-size", 10, new ConfigUtils.IntegerConfigValue.IntLimits(1),
+                        new ConfigUtils.Command("Audit log files rotate at %s MB", "Audit log files now rotate at %s MB (applies after restart)")),
+                new ConfigUtils.IntegerConfigValue("transport-port", 0, new ConfigUtils.IntegerConfigValue.IntLimits(0, 65535),
+                        new ConfigUtils.Command("Cross-server port is %s", "Cross-server port set to %s (applies after restart)")),
+                new ConfigUtils.StringConfigValue("transport-peers", "",
+                        new ConfigUtils.Command("Cross-server peer ports are '%s'", "Cross-server peer ports set to '%s' (applies after restart)")),
+                // no command, so the secret isn't echoed to chat
+                new ConfigUtils.StringConfigValue("transport-secret", "", null)
         }));
+        timeoutKey = config.key("timeout", Integer.class);
+        standStillKey = config.key("stand-still", Integer.class);
+        cooldownKey = config.key("cooldown", Integer.class);
+        maxRequestsKey = config.key("max-requests", Integer.class);
+        rateLimitBurstKey = config.key("rate-limit-burst", Integer.class);
+        rateLimitPerMinuteKey = config.key("rate-limit-per-minute", Integer.class);
+        globalRateLimitKey = config.key("global-rate-limit", Integer.class);
+        teleportsPerTickKey = config.key("teleports-per-tick", Integer.class);
+        degradeMsptKey = config.key("degrade-mspt", Integer.class);
+        movementToleranceKey = config.key("movement-tolerance", Double.class);
+        cancelOnDamageKey = config.key("cancel-on-damage", Boolean.class);
+        cancelOnCombatKey = config.key("cancel-on-combat", Boolean.class);
+        bossBarKey = config.key("bossbar", Boolean.class);
+        cooldownModeKey = config.key("cooldown-mode", TPACooldownMode.class);
+        journalMmapKey = config.key("journal-mmap", Boolean.class);
+        auditLogKey = config.key("audit-log", Boolean.class);
+        auditMaxSizeKey = config.key("audit-log-max-size", Integer.class);
+        transportPortKey = config.key("transport-port", Integer.class);
+        transportPeersKey = config.key("transport-peers", String.class);
+        transportSecretKey = config.key("transport-secret", String.class);
+        messages = Messages.load(FabricLoader.getInstance().getConfigDir().resolve(MESSAGES_NAME), logger);
+
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            this.server = server;
+            stopping = false;
+            config.startWatching();
+            stats.register();
+            journal = new RequestJournal(server.getSavePath(WorldSavePath.ROOT).resolve(JOURNAL_NAME), logger,
+                    config.getBoolean(journalMmapKey), () -> config.getInt(cooldownKey));
+            restore(journal.open());
+            if (config.getBoolean(auditLogKey)) {
+                audit = new AuditLog(FabricLoader.getInstance().getGameDir().resolve("logs"), logger, config.getInt(auditMaxSizeKey) * 1024L * 1024L);
+                audit.open();
+            }
+            startTransport();
+        });
+        // players are disconnected during shutdown, their requests should stay journaled instead of being purged
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            stopping = true;
+            clearQueuedTeleports();
+            TeleportUtils.clear();
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            if (transport != null) transport.close();
+            if (journal != null) journal.close();
+            if (audit != null) audit.close();
+            audit = null;
+            transport = null;
+            // an integrated server can open another world in the same session, nothing should carry over into it
+            engine.clear();
+            timeouts.clear();
+            activeTPA.clear();
+            onlinePlayers.clear();
+            recentRequests.clear();
+            deferredNotices.clear();
+            remotePlayers.clear();
+            remoteByName.clear();
+            pendingArrivals.clear();
+            stats.unregister();
+            config.stopWatching();
+            config.flush();
+        });
+
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            ServerPlayerEntity player = handler.player;
+            sessionSlots.put(player.getUuid(), rateLimiter.acquireSlot(System.nanoTime(), config.getInt(rateLimitBurstKey)));
+            engine.execute(() -> {
+                forgetRemote(player.getUuid());
+                onlinePlayers.add(player.getUuid(), player.getEntityName(), activeTPA.countInvolving(player.getUuid()));
+                if (transport != null) transport.publish(TransportMessage.playerJoined(PlayerRef.of(player)));
+                arrive(player);
+            });
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            UUID uuid = handler.player.getUuid();
+            FPAPIUtilsWrapper.invalidate(uuid);
+            Integer slot = sessionSlots.remove(uuid);
+            if (slot != null) rateLimiter.releaseSlot(slot);
+            if (stopping) return;
+            TeleportUtils.cancel(uuid);
+            dropQueuedTeleports(uuid);
+            engine.execute(() -> {
+                purgeRequests(uuid);
+                onlinePlayers.remove(uuid);
+                if (transport != null) transport.publish(TransportMessage.playerLeft(uuid));
+            });
+        });
+
+        TeleportUtils.setListener((ticks, movementResets) -> {
+            stats.standStillTicks.record(ticks);
+            stats.movementResets.record(movementResets);
+        });
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            long start = System.nanoTime();
+            if (load.sample(server.getTickTime(), config.getInt(degradeMsptKey))) {
+                TeleportUtils.setLoadLevel(load.getLevel());
+                logger.info("Server is at {} MSPT, load level is now {}", String.format("%.1f", server.getTickTime()), LoadMonitor.name(load.getLevel()));
+            }
+            engine.drain();
+            if (transport != null) transport.receive(this::onRemoteMessage);
+            timeouts.tick();
+            TeleportUtils.tick();
+            drainTeleports(config.getInt(teleportsPerTickKey));
+            if (load.getLevel() == LoadMonitor.NORMAL) drainNotices(NOTICES_PER_TICK);
+            if (transport != null) transport.flush();
+            stats.recordTick(System.nanoTime() - start, activeTPA.size(), TeleportUtils.getPendingCount(), load.getLevel());
+        });
 
         CommandRegistrationCallback.EVENT.register((dispatcher, registry, environment) -> {
             dispatcher.register(literal("tpa")
                     .requires(FPAPIUtilsWrapper.require("fabrictpa.tpa", true))
                     .then(argument("target", EntityArgumentType.player()).suggests(this::getTPAInitSuggestions)
-                            .executes(ctx -> tpaInit(ctx, getPlayer(ctx, "target")))));
+                            .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, resolveTarget(ctx), this::tpaInit))));
 
             dispatcher.register(literal("tpahere")
                     .requires(FPAPIUtilsWrapper.require("fabrictpa.tpa", true))
-                    .then(argument("target", EntityArgumentType.player()).suggests(this::getTPAInitSuggestions)
-                            .executes(ctx -> tpaHere(ctx, getPlayer(ctx, "target")))));
+                    .then(argument("target", EntityArgumentType.players()).suggests(this::getTPAInitSuggestions)
+                            .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, resolveTargets(ctx), this::tpaHereBulk))));
 
             dispatcher.register(literal("tpaaccept")
                     .requires(FPAPIUtilsWrapper.require("fabrictpa.tpa", true))
                     .then(argument("target", EntityArgumentType.player()).suggests(this::getTPATargetSuggestions)
-                            .executes(ctx -> tpaAccept(ctx, getPlayer(ctx, "target"))))
-                    .executes(ctx -> tpaAccept(ctx, null)));
+                            .executes(ctx -> submit(ctx, resolveTarget(ctx), this::tpaAccept)))
+                    .then(literal("*").executes(ctx -> submit(ctx, null, (c, target) -> tpaAcceptAll(c))))
+                    .executes(ctx -> submit(ctx, null, this::tpaAccept)));
 
             dispatcher.register(literal("tpadeny")
                     .requires(FPAPIUtilsWrapper.require("fabrictpa.tpa", true))
                     .then(argument("target", EntityArgumentType.player()).suggests(this::getTPATargetSuggestions)
-                            .executes(ctx -> tpaDeny(ctx, getPlayer(ctx, "target"))))
-                    .executes(ctx -> tpaDeny(ctx, null)));
+                            .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, resolveTarget(ctx), this::tpaDeny)))
+                    .then(literal("*").executes(ctx -> throttled(ctx) ? 0 : submit(ctx, null, (c, target) -> tpaDenyAll(c))))
+                    .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, null, this::tpaDeny)));
 
             dispatcher.register(literal("tpacancel")
                     .requires(FPAPIUtilsWrapper.require("fabrictpa.tpa", true))
                     .then(argument("target", EntityArgumentType.player()).suggests(this::getTPASenderSuggestions)
-                            .executes(ctx -> tpaCancel(ctx, getPlayer(ctx, "target"))))
-                    .executes(ctx -> tpaCancel(ctx, null)));
+                            .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, resolveTarget(ctx), this::tpaCancel)))
+                    .executes(ctx -> throttled(ctx) ? 0 : submit(ctx, null, this::tpaCancel)));
+
+            dispatcher.register(literal("tpastats")
+                    .requires(FPAPIUtilsWrapper.require("fabrictpa.stats", 2))
+                    .executes(this::tpaStats));
 
             dispatcher.register(config.generateCommand("tpaconfig", FPAPIUtilsWrapper.require("fabrictpa.config", 2)));
         });
 
     }
 
-    public int tpaInit(CommandContext<ServerCommandSource> ctx, ServerPlayerEntity tTo) throws CommandSyntaxException {
+    // Local players go through the entity selector, names it can't find may still be online on another node
+    private PlayerRef resolveTarget(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        try {
+            return PlayerRef.of(getPlayer(ctx, "target"));
+        } catch (CommandSyntaxException e) {
+            for (ParsedCommandNode<ServerCommandSource> node : ctx.getNodes()) {
+                if (!node.getNode().getName().equals("target")) continue;
+                RemotePlayer remote = remoteByName.get(PlayerNameIndex.key(node.getRange().get(ctx.getInput())));
+                if (remote != null) return remote.ref();
+            }
+            throw e;
+        }
+    }
+
+    // Selectors like @a can match many players, a plain name may also be a player on another node
+    private List<PlayerRef> resolveTargets(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        try {
+            return getPlayers(ctx, "target").stream().map(PlayerRef::of).toList();
+        } catch (CommandSyntaxException e) {
+            return List.of(resolveTarget(ctx));
+        }
+    }
+
+    // Runs before the target is resolved or anything is queued, so spamming a command costs a lookup and a few array reads
+    private boolean throttled(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        ServerPlayerEntity player = ctx.getSource().getPlayer();
+        Integer slot = sessionSlots.get(player.getUuid());
+        if (slot == null) return false;
+        ConfigUtils.Snapshot settings = config.getSnapshot();
+        int globalRate = settings.getInt(globalRateLimitKey);
+        if (rateLimiter.tryAcquire(slot, System.nanoTime(), settings.getInt(rateLimitBurstKey), settings.getInt(rateLimitPerMinuteKey) / 60.0,
+                globalRate, globalRate)) return false;
+        stats.rateLimitRejections.incrementAndGet();
+        if (rateLimiter.shouldNotify(slot)) player.sendMessage(messages.throttled.format(), false);
+        return true;
+    }
+
+    // Checks run inside the command so its result reflects them, the state change itself is queued on the event loop
+    private <T> int submit(CommandContext<ServerCommandSource> ctx, @Nullable T target, TPACommand<T> command) throws CommandSyntaxException {
+        Runnable change = command.check(ctx, target);
+        if (change == null) return 0;
+        engine.execute(change);
+        return 1;
+    }
+
+    public Runnable tpaInit(CommandContext<ServerCommandSource> ctx, PlayerRef tTo) throws CommandSyntaxException {
         final ServerPlayerEntity tFrom = ctx.getSource().getPlayer();
 
-        if (tFrom.equals(tTo)) {
-            tFrom.sendMessage(Text.literal("You cannot request to teleport to yourself!").formatted(Formatting.RED), false);
-            return 1;
+        if (tFrom.getUuid().equals(tTo.uuid())) {
+            tFrom.sendMessage(messages.tpaSelf.format(), false);
+            return null;
         }
 
-        if (checkCooldown(tFrom)) return 1;
+        if (checkCooldown(PlayerRef.of(tFrom))) return null;
 
-        TPARequest tr = new TPARequest(tFrom, tTo, false, (int) config.getValue("timeout") * 1000);
-        if (activeTPA.stream().anyMatch(tpaRequest -> tpaRequest.equals(tr))) {
-            tFrom.sendMessage(Text.literal("There is already an ongoing request like this!").formatted(Formatting.RED), false);
-            return 1;
+        int timeout = config.getInt(timeoutKey);
+        TPARequest tr = new TPARequest(PlayerRef.of(tFrom), tTo, false, timeout * 20);
+        if (activeTPA.contains(tr)) {
+            tFrom.sendMessage(messages.duplicate.format(), false);
+            return null;
+        }
+        if (activeTPA.countOutgoing(tFrom.getUuid()) >= config.getInt(maxRequestsKey)) {
+            tFrom.sendMessage(messages.tooMany.format(), false);
+            return null;
         }
-        tr.setTimeoutCallback(() -> {
-            activeTPA.remove(tr);
-            tFrom.sendMessage(Text.literal("Your teleport request to " + tTo.getEntityName() + " has timed out!").formatted(Formatting.RED), false);
-            tTo.sendMessage(Text.literal("Teleport request from " + tFrom.getEntityName() + " has timed out!").formatted(Formatting.RED), false);
-        });
-        activeTPA.add(tr);
 
-        tFrom.sendMessage(
-                Text.literal("You have requested to teleport to ").formatted(Formatting.LIGHT_PURPLE)
-                        .append(Text.literal(tTo.getEntityName()).formatted(Formatting.AQUA))
-                        .append(Text.literal("\nTo cancel type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpacancel [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpacancel " + tTo.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpacancel " + tTo.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nThis request will timeout in " + config.getValue("timeout") + " seconds.").formatted(Formatting.LIGHT_PURPLE)),
-                false);
-
-        tTo.sendMessage(
-                Text.literal(tFrom.getEntityName()).formatted(Formatting.AQUA)
-                        .append(Text.literal(" has requested to teleport to you!").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("\nTo accept type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpaaccept [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpaaccept " + tFrom.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpaaccept " + tFrom.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nTo deny type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpadeny [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpadeny " + tFrom.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpadeny " + tFrom.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nThis request will timeout in " + config.getValue("timeout") + " seconds.").formatted(Formatting.LIGHT_PURPLE)),
-                false);
-        return 1;
+        return () -> {
+            // an earlier command in the same tick may have sent it already
+            if (activeTPA.contains(tr)) return;
+            addRequest(tr);
+
+            String timeoutText = String.valueOf(timeout);
+            tFrom.sendMessage(messages.tpaSent.format(tTo.name(), timeoutText), false);
+            send(tTo, messages.tpaReceived.format(tFrom.getEntityName(), timeoutText));
+        };
     }
 
-    public int tpaHere(CommandContext<ServerCommandSource> ctx, ServerPlayerEntity tFrom) throws CommandSyntaxException {
+    public Runnable tpaHere(CommandContext<ServerCommandSource> ctx, PlayerRef tFrom) throws CommandSyntaxException {
         final ServerPlayerEntity tTo = ctx.getSource().getPlayer();
 
-        if (tTo.equals(tFrom)) {
-            tTo.sendMessage(Text.literal("You cannot request for you to teleport to yourself!").formatted(Formatting.RED), false);
-            return 1;
+        if (tTo.getUuid().equals(tFrom.uuid())) {
+            tTo.sendMessage(messages.tpaHereSelf.format(), false);
+            return null;
         }
 
-        if (checkCooldown(tFrom)) return 1;
+        if (checkCooldown(tFrom)) return null;
 
-        TPARequest tr = new TPARequest(tFrom, tTo, true, (int) config.getValue("timeout") * 1000);
-        if (activeTPA.stream().anyMatch(tpaRequest -> tpaRequest.equals(tr))) {
-            tTo.sendMessage(Text.literal("There is already an ongoing request like this!").formatted(Formatting.RED), false);
-            return 1;
+        int timeout = config.getInt(timeoutKey);
+        TPARequest tr = new TPARequest(tFrom, PlayerRef.of(tTo), true, timeout * 20);
+        if (activeTPA.contains(tr)) {
+            tTo.sendMessage(messages.duplicate.format(), false);
+            return null;
+        }
+        if (activeTPA.countOutgoing(tTo.getUuid()) >= config.getInt(maxRequestsKey)) {
+            tTo.sendMessage(messages.tooMany.format(), false);
+            return null;
         }
-        tr.setTimeoutCallback(() -> {
-            activeTPA.remove(tr);
-            tTo.sendMessage(Text.literal("Your teleport request for " + tFrom.getEntityName() + " to you has timed out!").formatted(Formatting.RED), false);
-            tFrom.sendMessage(Text.literal("Teleport request for you to " + tTo.getEntityName() + " has timed out!").formatted(Formatting.RED), false);
-        });
-        activeTPA.add(tr);
 
-        tTo.sendMessage(
-                Text.literal("You have requested for ").formatted(Formatting.LIGHT_PURPLE)
-                        .append(Text.literal(tFrom.getEntityName()).formatted(Formatting.AQUA))
-                        .append(Text.literal(" to teleport to you!\nTo cancel type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpacancel [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpacancel " + tFrom.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpacancel " + tFrom.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nThis request will timeout in " + config.getValue("timeout") + " seconds.").formatted(Formatting.LIGHT_PURPLE)),
-                false);
-
-        tFrom.sendMessage(
-                Text.literal(tTo.getEntityName()).formatted(Formatting.AQUA)
-                        .append(Text.literal(" has requested for you to teleport to them!").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("\nTo accept type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpaaccept [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpaaccept " + tTo.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpaaccept " + tTo.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nTo deny type ").formatted(Formatting.LIGHT_PURPLE))
-                        .append(Text.literal("/tpadeny [<player>]").styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpadeny " + tTo.getEntityName()))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpadeny " + tTo.getEntityName())))
-                                        .withColor(Formatting.GOLD)))
-                        .append(Text.literal("\nThis request will timeout in " + config.getValue("timeout") + " seconds.").formatted(Formatting.LIGHT_PURPLE)),
-                false);
-        return 1;
+        return () -> {
+            if (activeTPA.contains(tr)) return;
+            addRequest(tr);
+
+            String timeoutText = String.valueOf(timeout);
+            tTo.sendMessage(messages.tpaHereSent.format(tFrom.name(), timeoutText), false);
+            send(tFrom, messages.tpaHereReceived.format(tTo.getEntityName(), timeoutText));
+        };
     }
 
-    private boolean checkCooldown(ServerPlayerEntity tFrom) {
-        if (recentRequests.containsKey(tFrom.getUuid())) {
-            long diff = Instant.now().getEpochSecond() - recentRequests.get(tFrom.getUuid());
-            if (diff < (int) config.getValue("cooldown")) {
-                tFrom.sendMessage(Text.literal("You cannot make a request for ").append(String.valueOf((int) config.getValue("cooldown") - diff))
-                        .append(" more seconds!").formatted(Formatting.RED), false);
-                return true;
+    private Runnable tpaHereBulk(CommandContext<ServerCommandSource> ctx, List<PlayerRef> targets) throws CommandSyntaxException {
+        if (targets.size() == 1) return tpaHere(ctx, targets.get(0));
+        final ServerPlayerEntity tTo = ctx.getSource().getPlayer();
+
+        // only ops can use selectors, so bulk requests aren't held to max-requests
+        int timeout = config.getInt(timeoutKey);
+        String timeoutText = String.valueOf(timeout);
+        PlayerRef self = PlayerRef.of(tTo);
+        List<TPARequest> requests = new ArrayList<>(targets.size());
+        for (PlayerRef tFrom : targets) {
+            if (tFrom.uuid().equals(tTo.getUuid()) || checkCooldown(tFrom)) continue;
+            TPARequest tr = new TPARequest(tFrom, self, true, timeout * 20);
+            if (activeTPA.contains(tr)) continue;
+            tr.bulk = true;
+            requests.add(tr);
+        }
+        if (requests.isEmpty()) {
+            tTo.sendMessage(messages.tpaHereSentBulk.format("0", timeoutText), false);
+            return null;
+        }
+
+        return () -> {
+            Text received = messages.tpaHereReceived.format(tTo.getEntityName(), timeoutText);
+            int sent = 0;
+            for (TPARequest tr : requests) {
+                if (activeTPA.contains(tr)) continue;
+                addRequest(tr);
+                send(tr.tFromRef, received);
+                sent++;
             }
+            tTo.sendMessage(messages.tpaHereSentBulk.format(String.valueOf(sent), timeoutText), false);
+        };
+    }
+
+    private boolean checkCooldown(PlayerRef tFrom) {
+        long remaining = recentRequests.getRemaining(tFrom.uuid(), Instant.now().getEpochSecond(), config.getInt(cooldownKey));
+        if (remaining > 0) {
+            stats.cooldownRejections.incrementAndGet();
+            send(tFrom, messages.cooldown.format(String.valueOf(remaining)));
+            return true;
         }
         return false;
     }
 
-    private enum TPAAction {
-        ACCEPT, DENY, CANCEL
+    private void addRequest(TPARequest tr) {
+        scheduleTimeout(tr);
+        activeTPA.add(tr);
+        journal.requestAdded(tr);
+        audit(AuditLog.REQUEST, tr);
+        stats.created.incrementAndGet();
+        if (transport != null && isCrossNode(tr)) transport.publish(TransportMessage.request(tr));
     }
 
-    private TPARequest getTPARequest(ServerPlayerEntity rFrom, ServerPlayerEntity rTo, TPAAction action) {
-        Optional<TPARequest> otr = activeTPA.stream()
-                .filter(tpaRequest -> tpaRequest.rFrom.equals(rFrom) && tpaRequest.rTo.equals(rTo)).findFirst();
+    private void removeRequest(TPARequest tr) {
+        tr.cancelTimeout();
+        if (activeTPA.remove(tr)) journal.requestRemoved(tr);
+    }
 
-        if (otr.isEmpty()) {
-            if (action == TPAAction.CANCEL) {
-                rFrom.sendMessage(Text.literal("No ongoing request!").formatted(Formatting.RED), false);
-            } else {
-                rTo.sendMessage(Text.literal("No ongoing request!").formatted(Formatting.RED), false);
-            }
+    private void scheduleTimeout(TPARequest tr) {
+        tr.setTimeoutCallback(timeouts, () -> {
+            publishIfCrossNode(TransportMessage.TIMED_OUT, tr);
+            removeRequest(tr);
+            audit(AuditLog.TIMEOUT, tr);
+            stats.timedOut.incrementAndGet();
+            notifyTimeout(tr);
+        });
+    }
+
+    private void notifyTimeout(TPARequest tr) {
+        if (tr.tpaHere) {
+            notice(tr.tToRef, () -> messages.tpaHereTimeoutSender.format(tr.tFromRef.name()));
+            notice(tr.tFromRef, () -> messages.tpaHereTimeoutReceiver.format(tr.tToRef.name()));
+        } else {
+            notice(tr.tFromRef, () -> messages.tpaTimeoutSender.format(tr.tToRef.name()));
+            notice(tr.tToRef, () -> messages.tpaTimeoutReceiver.format(tr.tFromRef.name()));
+        }
+    }
+
+    // Informational messages wait while the server is degraded and aren't even built until then,
+    // past MAX_DEFERRED_NOTICES they're dropped
+    private void notice(PlayerRef to, Supplier<Text> text) {
+        if (load.getLevel() == LoadMonitor.NORMAL && deferredNotices.isEmpty()) {
+            send(to, text.get());
+        } else if (deferredNotices.size() < MAX_DEFERRED_NOTICES) {
+            deferredNotices.add(new Notice(to, text));
+        }
+    }
+
+    private void drainNotices(int budget) {
+        Notice notice;
+        while (budget-- > 0 && (notice = deferredNotices.poll()) != null) send(notice.to(), notice.text().get());
+    }
+
+    // Requests involving a player who left are dropped right away instead of waiting for their timeout
+    private void purgeRequests(UUID uuid) {
+        for (TPARequest tr : activeTPA.getOutgoing(uuid).toArray(TPARequest[]::new)) {
+            stats.cancelled.incrementAndGet();
+            publishIfCrossNode(TransportMessage.CANCELLED, tr);
+            removeRequest(tr);
+            audit(AuditLog.CANCEL, tr);
+            notice(tr.rToRef, () -> messages.disconnected.format(tr.rFromRef.name()));
+        }
+        for (TPARequest tr : activeTPA.getIncoming(uuid).toArray(TPARequest[]::new)) {
+            stats.cancelled.incrementAndGet();
+            publishIfCrossNode(TransportMessage.DENIED, tr);
+            removeRequest(tr);
+            audit(AuditLog.CANCEL, tr);
+            notice(tr.rFromRef, () -> messages.disconnected.format(tr.rToRef.name()));
+        }
+    }
+
+    private void audit(byte type, TPARequest tr) {
+        if (audit != null) audit.record(type, tr, getOnline(tr.tFromRef), getOnline(tr.tToRef));
+    }
+
+    private void putCooldown(UUID player, long now, int cooldown) {
+        recentRequests.put(player, now, cooldown);
+        journal.cooldown(player, now);
+    }
+
+    // Brings back the requests and cooldowns that were pending when the server last stopped
+    private void restore(RequestJournal.State state) {
+        int cooldown = config.getInt(cooldownKey);
+        state.cooldowns.forEach((uuid, stamp) -> recentRequests.put(uuid, stamp, cooldown));
+        long now = System.currentTimeMillis();
+        for (RequestJournal.RequestAdded added : state.requests) {
+            TPARequest tr = new TPARequest(added.tFrom(), added.tTo(), added.tpaHere(), (int) Math.max(1, (added.expiresAt() - now) / 50));
+            tr.bulk = added.bulk();
+            scheduleTimeout(tr);
+            activeTPA.add(tr);
+        }
+    }
+
+    @Nullable
+    private ServerPlayerEntity getOnline(PlayerRef ref) {
+        return server.getPlayerManager().getPlayer(ref.uuid());
+    }
+
+    private void send(PlayerRef ref, Text text) {
+        ServerPlayerEntity player = getOnline(ref);
+        if (player != null) player.sendMessage(text, false);
+    }
+
+    private static MutableText candidateList(TextTemplate header, TextTemplate entry, Stream<String> names) {
+        MutableText text = header.format();
+        names.forEach(name -> text.append(entry.format(name)));
+        return text;
+    }
+
+    private TPARequest getTPARequest(UUID rFrom, UUID rTo, ServerPlayerEntity self) {
+        TPARequest tr = activeTPA.get(rFrom, rTo);
+        if (tr == null) self.sendMessage(messages.noRequest.format(), false);
+        return tr;
+    }
+
+    // null if there's no single request to act on, the player has already been told why
+    @Nullable
+    private TPARequest findIncoming(ServerPlayerEntity rTo, @Nullable PlayerRef rFrom, TextTemplate multiple, TextTemplate multipleEntry) {
+        if (rFrom != null) return getTPARequest(rFrom.uuid(), rTo.getUuid(), rTo);
+        TPARequest[] candidates = activeTPA.getIncoming(rTo.getUuid()).toArray(TPARequest[]::new);
+        if (candidates.length > 1) {
+            rTo.sendMessage(candidateList(multiple, multipleEntry,
+                    Arrays.stream(candidates).map(tpaRequest -> tpaRequest.rFromRef.name())), false);
+            return null;
+        }
+        if (candidates.length < 1) {
+            rTo.sendMessage(messages.noActiveRequests.format(), false);
             return null;
         }
+        return candidates[0];
+    }
 
-        return otr.get();
+    // A queued change only applies if nothing resolved the request in the meantime
+    private boolean isActive(TPARequest tr) {
+        return activeTPA.get(tr.rFromRef.uuid(), tr.rToRef.uuid()) == tr;
     }
 
-    public int tpaAccept(CommandContext<ServerCommandSource> ctx, ServerPlayerEntity rFrom) throws CommandSyntaxException {
+    public Runnable tpaAccept(CommandContext<ServerCommandSource> ctx, PlayerRef rFrom) throws CommandSyntaxException {
         final ServerPlayerEntity rTo = ctx.getSource().getPlayer();
 
-        if (rFrom == null) {
-            TPARequest[] candidates;
-            candidates = activeTPA.stream().filter(tpaRequest -> tpaRequest.rTo.equals(rTo)).toArray(TPARequest[]::new);
-            if (candidates.length > 1) {
-                MutableText text = Text.literal("You currently have multiple active teleport requests! Please specify whose request to accept.\n").formatted(Formatting.LIGHT_PURPLE);
-                Arrays.stream(candidates).map(tpaRequest -> tpaRequest.rFrom.getEntityName()).forEach(name ->
-                        text.append(Text.literal(name).styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpaaccept " + name))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpaaccept " + name)))
-                                        .withColor(Formatting.GOLD))).append(" "));
-                rTo.sendMessage(text, false);
-                return 1;
-            }
-            if (candidates.length < 1) {
-                rTo.sendMessage(Text.literal("You currently don't have any teleport requests!").formatted(Formatting.RED), false);
-                return 1;
-            }
-            rFrom = candidates[0].rFrom;
-        }
-
-        TPARequest tr = getTPARequest(rFrom, rTo, TPAAction.ACCEPT);
-        if (tr == null) return 1;
-        TeleportUtils.genericTeleport((boolean) config.getValue("bossbar"), (int) config.getValue("stand-still"), rFrom, () -> {
-            if (tr.tFrom.isRemoved() || tr.tTo.isRemoved()) tr.refreshPlayers();
-            tr.tFrom.teleport(tr.tTo.getWorld(), tr.tTo.getX(), tr.tTo.getY(), tr.tTo.getZ(), tr.tTo.getYaw(), tr.tTo.getPitch());
-            switch ((TPACooldownMode) config.getValue("cooldown-mode")) {
-                case BothUsers -> {
-                    recentRequests.put(tr.tFrom.getUuid(), Instant.now().getEpochSecond());
-                    recentRequests.put(tr.tTo.getUuid(), Instant.now().getEpochSecond());
-                }
-                case WhoInitiated -> recentRequests.put(tr.rFrom.getUuid(), Instant.now().getEpochSecond());
-                case WhoTeleported -> recentRequests.put(tr.tFrom.getUuid(), Instant.now().getEpochSecond());
+        TPARequest tr = findIncoming(rTo, rFrom, messages.acceptMultiple, messages.acceptMultipleEntry);
+        if (tr == null || !canAccept(tr, rTo)) return null;
+
+        return () -> {
+            if (!isActive(tr)) return;
+            acceptRequest(tr);
+            rTo.sendMessage(messages.acceptReceiver.format(), false);
+        };
+    }
+
+    private Runnable tpaAcceptAll(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        final ServerPlayerEntity rTo = ctx.getSource().getPlayer();
+
+        TPARequest[] candidates = activeTPA.getIncoming(rTo.getUuid()).toArray(TPARequest[]::new);
+        if (candidates.length < 1) {
+            rTo.sendMessage(messages.noActiveRequests.format(), false);
+            return null;
+        }
+        List<TPARequest> acceptable = new ArrayList<>(candidates.length);
+        for (TPARequest tr : candidates) {
+            if (canAccept(tr, rTo)) acceptable.add(tr);
+        }
+        if (acceptable.isEmpty()) {
+            rTo.sendMessage(messages.acceptAll.format("0"), false);
+            return null;
+        }
+
+        return () -> {
+            int accepted = 0;
+            for (TPARequest tr : acceptable) {
+                if (!isActive(tr)) continue;
+                acceptRequest(tr);
+                accepted++;
             }
+            rTo.sendMessage(messages.acceptAll.format(String.valueOf(accepted)), false);
+        };
+    }
+
+    // the warm-up runs wherever the requester is, for remote requesters that's the other node
+    private boolean canAccept(TPARequest tr, ServerPlayerEntity rTo) {
+        if (getOnline(tr.rFromRef) == null && !isRemote(tr.rFromRef)) {
+            rTo.sendMessage(messages.offline.format(tr.rFromRef.name()), false);
+            return false;
+        }
+        return true;
+    }
+
+    private void acceptRequest(TPARequest tr) {
+        ServerPlayerEntity requester = getOnline(tr.rFromRef);
+        stats.accepted.incrementAndGet();
+        stats.acceptMillis.record((System.nanoTime() - tr.createdAt) / 1_000_000);
+        if (requester != null) startWarmUp(tr, requester);
+
+        publishIfCrossNode(TransportMessage.ACCEPTED, tr);
+        removeRequest(tr);
+        audit(AuditLog.ACCEPT, tr);
+        if (requester != null) requester.sendMessage(messages.acceptSender.format(tr.rToRef.name()), false);
+    }
+
+    private void startWarmUp(TPARequest tr, ServerPlayerEntity requester) {
+        // the requester of a bulk /tpahere is its issuer, one warm-up per accepted target would pile up on them
+        if (tr.bulk) {
+            teleportQueue.add(new QueuedTeleport(tr, null));
+            return;
+        }
+        ConfigUtils.Snapshot settings = config.getSnapshot();
+        int cancelFlags = (settings.getBoolean(cancelOnDamageKey) ? TeleportUtils.CANCEL_ON_DAMAGE : 0)
+                | (settings.getBoolean(cancelOnCombatKey) ? TeleportUtils.CANCEL_ON_COMBAT : 0);
+        TeleportUtils.genericTeleport(settings.getBoolean(bossBarKey), settings.getInt(standStillKey), settings.getDouble(movementToleranceKey),
+                cancelFlags, requester, getOnline(tr.tToRef), ticket -> teleportQueue.add(new QueuedTeleport(tr, ticket)));
+    }
+
+    // Finished warm-ups queue up here, so a burst of them is spread over several ticks
+    private void drainTeleports(int budget) {
+        QueuedTeleport queued;
+        while (budget-- > 0 && (queued = teleportQueue.poll()) != null) {
+            completeTeleport(queued.tr());
+            if (queued.ticket() != null) queued.ticket().release();
+        }
+    }
+
+    // Queued teleports involving a player who left won't happen, so their tickets are let go right away
+    private void dropQueuedTeleports(UUID uuid) {
+        teleportQueue.removeIf(queued -> {
+            if (!queued.tr().tFromRef.uuid().equals(uuid) && !queued.tr().tToRef.uuid().equals(uuid)) return false;
+            if (queued.ticket() != null) queued.ticket().release();
+            return true;
         });
+    }
 
-        tr.cancelTimeout();
-        activeTPA.remove(tr);
-        tr.rTo.sendMessage(Text.literal("You have accepted the teleport request!"), false);
-        tr.rFrom.sendMessage(Text.literal(tr.rTo.getEntityName()).formatted(Formatting.AQUA)
-                .append(Text.literal(" has accepted the teleportation request!").formatted(Formatting.LIGHT_PURPLE)), false);
-        return 1;
+    private void clearQueuedTeleports() {
+        QueuedTeleport queued;
+        while ((queued = teleportQueue.poll()) != null) {
+            if (queued.ticket() != null) queued.ticket().release();
+        }
     }
 
+    private void completeTeleport(TPARequest tr) {
+        ServerPlayerEntity tFrom = getOnline(tr.tFromRef), tTo = getOnline(tr.tToRef);
+        if (tFrom != null && tTo != null) {
+            // logged first so the entry has where the player came from
+            if (audit != null) audit.record(AuditLog.TELEPORT, tr, tFrom, tTo);
+            tFrom.teleport(tTo.getWorld(), tTo.getX(), tTo.getY(), tTo.getZ(), tTo.getYaw(), tTo.getPitch());
+        } else if (moveAcross(tr)) {
+            if (audit != null) audit.record(AuditLog.TELEPORT, tr, tFrom, tTo);
+        } else {
+            return;
+        }
+        long now = Instant.now().getEpochSecond();
+        ConfigUtils.Snapshot snapshot = config.getSnapshot();
+        int cooldown = snapshot.getInt(cooldownKey);
+        switch (snapshot.get(cooldownModeKey)) {
+            case BothUsers -> {
+                putCooldown(tr.tFromRef.uuid(), now, cooldown);
+                putCooldown(tr.tToRef.uuid(), now, cooldown);
+            }
+            case WhoInitiated -> putCooldown(tr.rFromRef.uuid(), now, cooldown);
+            case WhoTeleported -> putCooldown(tr.tFromRef.uuid(), now, cooldown);
+        }
+    }
 
-    public int tpaDeny(CommandContext<ServerCommandSource> ctx, ServerPlayerEntity rFrom) throws CommandSyntaxException {
+
+    public Runnable tpaDeny(CommandContext<ServerCommandSource> ctx, PlayerRef rFrom) throws CommandSyntaxException {
         final ServerPlayerEntity rTo = ctx.getSource().getPlayer();
 
-        if (rFrom == null) {
-            TPARequest[] candidates;
-            candidates = activeTPA.stream().filter(tpaRequest -> tpaRequest.rTo.equals(rTo)).toArray(TPARequest[]::new);
-            if (candidates.length > 1) {
-                MutableText text = Text.literal("You currently have multiple active teleport requests! Please specify whose request to deny.\n").formatted(Formatting.LIGHT_PURPLE);
-                Arrays.stream(candidates).map(tpaRequest -> tpaRequest.rFrom.getEntityName()).forEach(name ->
-                        text.append(Text.literal(name).styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpadeny " + name))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpadeny " + name)))
-                                        .withColor(Formatting.GOLD))).append(" "));
-                rTo.sendMessage(text, false);
-                return 1;
-            }
-            if (candidates.length < 1) {
-                rTo.sendMessage(Text.literal("You currently don't have any teleport requests!").formatted(Formatting.RED), false);
-                return 1;
-            }
-            rFrom = candidates[0].rFrom;
+        TPARequest tr = findIncoming(rTo, rFrom, messages.denyMultiple, messages.denyMultipleEntry);
+        if (tr == null) return null;
+
+        return () -> {
+            if (!isActive(tr)) return;
+            denyRequest(tr);
+            rTo.sendMessage(messages.denyReceiver.format(), false);
+        };
+    }
+
+    private Runnable tpaDenyAll(CommandContext<ServerCommandSource> ctx) throws CommandSyntaxException {
+        final ServerPlayerEntity rTo = ctx.getSource().getPlayer();
+
+        TPARequest[] candidates = activeTPA.getIncoming(rTo.getUuid()).toArray(TPARequest[]::new);
+        if (candidates.length < 1) {
+            rTo.sendMessage(messages.noActiveRequests.format(), false);
+            return null;
         }
 
-        TPARequest tr = getTPARequest(rFrom, rTo, TPAAction.DENY);
-        if (tr == null) return 1;
-        tr.cancelTimeout();
-        activeTPA.remove(tr);
-        tr.rTo.sendMessage(Text.literal("You have cancelled the teleport request!"), false);
-        tr.rFrom.sendMessage(Text.literal(tr.rTo.getEntityName()).formatted(Formatting.AQUA)
-                .append(Text.literal(" has cancelled the teleportation request!").formatted(Formatting.RED)), false);
-        return 1;
+        return () -> {
+            int denied = 0;
+            for (TPARequest tr : candidates) {
+                if (!isActive(tr)) continue;
+                denyRequest(tr);
+                denied++;
+            }
+            rTo.sendMessage(messages.denyAll.format(String.valueOf(denied)), false);
+        };
     }
 
-    public int tpaCancel(CommandContext<ServerCommandSource> ctx, ServerPlayerEntity rTo) throws CommandSyntaxException {
+    private void denyRequest(TPARequest tr) {
+        stats.denied.incrementAndGet();
+        publishIfCrossNode(TransportMessage.DENIED, tr);
+        removeRequest(tr);
+        audit(AuditLog.DENY, tr);
+        notice(tr.rFromRef, () -> messages.denySender.format(tr.rToRef.name()));
+    }
+
+    public Runnable tpaCancel(CommandContext<ServerCommandSource> ctx, PlayerRef rTo) throws CommandSyntaxException {
         final ServerPlayerEntity rFrom = ctx.getSource().getPlayer();
 
+        TPARequest tr;
         if (rTo == null) {
             TPARequest[] candidates;
-            candidates = activeTPA.stream().filter(tpaRequest -> tpaRequest.rFrom.equals(rFrom)).toArray(TPARequest[]::new);
+            candidates = activeTPA.getOutgoing(rFrom.getUuid()).toArray(TPARequest[]::new);
             if (candidates.length > 1) {
-                MutableText text = Text.literal("You currently have multiple active teleport requests! Please specify which request to cancel.\n").formatted(Formatting.LIGHT_PURPLE);
-                Arrays.stream(candidates).map(tpaRequest -> tpaRequest.rTo.getEntityName()).forEach(name ->
-                        text.append(Text.literal(name).styled(s ->
-                                s.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, "/tpacancel " + name))
-                                        .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal("/tpacancel " + name)))
-                                        .withColor(Formatting.GOLD))).append(" "));
-                rFrom.sendMessage(text, false);
-                return 1;
+                rFrom.sendMessage(candidateList(messages.cancelMultiple, messages.cancelMultipleEntry,
+                        Arrays.stream(candidates).map(tpaRequest -> tpaRequest.rToRef.name())), false);
+                return null;
             }
             if (candidates.length < 1) {
-                rFrom.sendMessage(Text.literal("You currently don't have any teleport requests!").formatted(Formatting.RED), false);
-                return 1;
+                rFrom.sendMessage(messages.noActiveRequests.format(), false);
+                return null;
             }
-            rTo = candidates[0].rTo;
+            tr = candidates[0];
+        } else {
+            tr = getTPARequest(rFrom.getUuid(), rTo.uuid(), rFrom);
+            if (tr == null) return null;
         }
 
-        System.out.printf("%s -> %s\n", rFrom.getEntityName(), rTo.getEntityName());
-        TPARequest tr = getTPARequest(rFrom, rTo, TPAAction.CANCEL);
-        if (tr == null) return 1;
-        tr.cancelTimeout();
-        activeTPA.remove(tr);
-        tr.rFrom.sendMessage(Text.literal("You have cancelled the teleport request!").formatted(Formatting.RED), false);
-        tr.rTo.sendMessage(Text.literal(tr.rFrom.getEntityName()).formatted(Formatting.AQUA)
-                .append(Text.literal(" has cancelled the teleportation request!").formatted(Formatting.RED)), false);
+        return () -> {
+            if (!isActive(tr)) return;
+            stats.cancelled.incrementAndGet();
+            publishIfCrossNode(TransportMessage.CANCELLED, tr);
+            removeRequest(tr);
+            audit(AuditLog.CANCEL, tr);
+            rFrom.sendMessage(messages.cancelSender.format(), false);
+            notice(tr.rToRef, () -> messages.cancelReceiver.format(tr.rFromRef.name()));
+        };
+    }
+
+    private void startTransport() {
+        int port = config.getInt(transportPortKey);
+        if (port == 0) return;
+        try {
+            int[] peers = Arrays.stream(config.get(transportPeersKey).split(",")).map(String::trim)
+                    .filter(peer -> !peer.isEmpty()).mapToInt(Integer::parseInt).toArray();
+            String secret = config.get(transportSecretKey);
+            if (secret.isEmpty()) logger.warn("transport-secret is empty, any local process can send cross-server requests");
+            transport = LoopbackTransport.socket(port, peers, secret, logger);
+            transport.publish(TransportMessage.sync());
+            logger.info("Cross-server transport started as {}", transport.getNodeId());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Failed to start cross-server transport!", e);
+        }
+    }
+
+    private boolean isRemote(PlayerRef player) {
+        return remotePlayers.containsKey(player.uuid());
+    }
+
+    private boolean isCrossNode(TPARequest tr) {
+        return isRemote(tr.tFromRef) || isRemote(tr.tToRef);
+    }
+
+    private void publishIfCrossNode(byte type, TPARequest tr) {
+        if (transport != null && isCrossNode(tr)) transport.publish(TransportMessage.of(type, tr));
+    }
+
+    private void forgetRemote(UUID uuid) {
+        RemotePlayer remote = remotePlayers.remove(uuid);
+        if (remote == null) return;
+        remoteByName.remove(PlayerNameIndex.key(remote.ref().name()), remote);
+        onlinePlayers.remove(uuid);
+    }
+
+    private void onRemoteMessage(TransportMessage message) {
+        switch (message.type()) {
+            case TransportMessage.PLAYER_JOINED -> {
+                PlayerRef player = message.firstRef();
+                if (getOnline(player) != null) return;
+                forgetRemote(player.uuid());
+                RemotePlayer remote = new RemotePlayer(player, message.node());
+                remotePlayers.put(player.uuid(), remote);
+                remoteByName.put(PlayerNameIndex.key(player.name()), remote);
+                onlinePlayers.add(player.uuid(), player.name(), activeTPA.countInvolving(player.uuid()));
+            }
+            case TransportMessage.PLAYER_LEFT -> {
+                RemotePlayer remote = remotePlayers.get(message.first());
+                if (remote == null || !remote.node().equals(message.node())) return;
+                // forgotten first, so the purge doesn't announce the player's requests back across nodes
+                forgetRemote(message.first());
+                purgeRequests(message.first());
+                dropQueuedTeleports(message.first());
+            }
+            case TransportMessage.SYNC -> {
+                for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+                    transport.publish(TransportMessage.playerJoined(PlayerRef.of(player)));
+                }
+            }
+            case TransportMessage.REQUEST -> {
+                TPARequest tr = new TPARequest(message.firstRef(), message.secondRef(), message.tpaHere(),
+                        (int) Math.max(1, (message.expiresAt() - System.currentTimeMillis()) / 50));
+                if (activeTPA.contains(tr)) return;
+                scheduleTimeout(tr);
+                activeTPA.add(tr);
+                String timeoutText = String.valueOf((tr.timeout + 19) / 20);
+                if (tr.tpaHere) send(tr.tFromRef, messages.tpaHereReceived.format(tr.tToRef.name(), timeoutText));
+                else send(tr.tToRef, messages.tpaReceived.format(tr.tFromRef.name(), timeoutText));
+            }
+            case TransportMessage.ARRIVING -> {
+                if (server.getPlayerManager().getPlayer(message.first()) != null) {
+                    RemotePlayer destination = remotePlayers.get(message.second());
+                    if (destination != null) transport.transfer(message.first(), destination.node());
+                } else if (server.getPlayerManager().getPlayer(message.second()) != null) {
+                    pendingArrivals.put(message.first(), message.second());
+                }
+            }
+            default -> {
+                TPARequest tr = message.tpaHere()
+                        ? activeTPA.get(message.second(), message.first())
+                        : activeTPA.get(message.first(), message.second());
+                if (tr != null) onRemoteResolved(message.type(), tr);
+            }
+        }
+    }
+
+    // The other side of a cross-node request acted on it, only players on this node get notified here
+    private void onRemoteResolved(byte type, TPARequest tr) {
+        removeRequest(tr);
+        switch (type) {
+            case TransportMessage.ACCEPTED -> {
+                ServerPlayerEntity requester = getOnline(tr.rFromRef);
+                if (requester == null) return;
+                requester.sendMessage(messages.acceptSender.format(tr.rToRef.name()), false);
+                startWarmUp(tr, requester);
+            }
+            case TransportMessage.DENIED -> notice(tr.rFromRef, () -> messages.denySender.format(tr.rToRef.name()));
+            case TransportMessage.CANCELLED -> notice(tr.rToRef, () -> messages.cancelReceiver.format(tr.rFromRef.name()));
+            case TransportMessage.TIMED_OUT -> notifyTimeout(tr);
+        }
+    }
+
+    // The teleporting player and their destination are on different nodes, so the proxy has to move them
+    private boolean moveAcross(TPARequest tr) {
+        if (transport == null) return false;
+        RemotePlayer from = remotePlayers.get(tr.tFromRef.uuid()), to = remotePlayers.get(tr.tToRef.uuid());
+        if (to != null && getOnline(tr.tFromRef) != null) {
+            transport.transfer(tr.tFromRef.uuid(), to.node());
+        } else if (from != null && getOnline(tr.tToRef) != null) {
+            pendingArrivals.put(tr.tFromRef.uuid(), tr.tToRef.uuid());
+        } else {
+            return false;
+        }
+        transport.publish(TransportMessage.of(TransportMessage.ARRIVING, tr));
+        return true;
+    }
+
+    private void arrive(ServerPlayerEntity player) {
+        UUID destination = pendingArrivals.remove(player.getUuid());
+        if (destination == null) return;
+        ServerPlayerEntity tTo = server.getPlayerManager().getPlayer(destination);
+        if (tTo != null) player.teleport(tTo.getWorld(), tTo.getX(), tTo.getY(), tTo.getZ(), tTo.getYaw(), tTo.getPitch());
+    }
+
+    private int tpaStats(CommandContext<ServerCommandSource> ctx) {
+        ServerCommandSource source = ctx.getSource();
+        source.sendFeedback(Text.literal("FabricTPA stats").formatted(Formatting.LIGHT_PURPLE), false);
+        source.sendFeedback(TextUtils.valueRepr("Requests created", String.valueOf(stats.getRequestsCreated())), false);
+        source.sendFeedback(TextUtils.valueRepr("Accepted", String.valueOf(stats.getRequestsAccepted())), false);
+        source.sendFeedback(TextUtils.valueRepr("Denied", String.valueOf(stats.getRequestsDenied())), false);
+        source.sendFeedback(TextUtils.valueRepr("Cancelled", String.valueOf(stats.getRequestsCancelled())), false);
+        source.sendFeedback(TextUtils.valueRepr("Timed out", String.valueOf(stats.getRequestsTimedOut())), false);
+        source.sendFeedback(TextUtils.valueRepr("Cooldown rejections", String.valueOf(stats.getCooldownRejections())), false);
+        source.sendFeedback(TextUtils.valueRepr("Rate limit rejections", String.valueOf(stats.getRateLimitRejections())), false);
+        source.sendFeedback(TextUtils.valueRepr("Pending requests", String.valueOf(stats.getPendingRequests())), false);
+        source.sendFeedback(TextUtils.valueRepr("Pending warm-ups", String.valueOf(stats.getPendingWarmUps())), false);
+        source.sendFeedback(TextUtils.valueRepr("Load level", LoadMonitor.name(stats.getLoadLevel())), false);
+        source.sendFeedback(histogramRepr("Request to accept", stats.acceptMillis, "ms"), false);
+        source.sendFeedback(histogramRepr("Stand-still", stats.standStillTicks, " ticks"), false);
+        source.sendFeedback(histogramRepr("Movement resets", stats.movementResets, ""), false);
+        source.sendFeedback(histogramRepr("Tick time", stats.tickMicros, "us"), false);
         return 1;
     }
 
+    private static MutableText histogramRepr(String name, Histogram histogram, String unit) {
+        return TextUtils.valueRepr(name, String.format("mean %.1f%s, p50 %d%s, p99 %d%s, max %d%s (n=%d)",
+                histogram.getMean(), unit, histogram.getPercentile(50), unit, histogram.getPercentile(99), unit,
+                histogram.getMax(), unit, histogram.getCount()));
+    }
+
 
     enum TPACooldownMode {
         WhoTeleported, WhoInitiated, BothUsers
     }
 
     static class TPARequest {
-        ServerPlayerEntity tFrom;
-        ServerPlayerEntity tTo;
-
-        ServerPlayerEntity rFrom;
-        ServerPlayerEntity rTo;
+        final PlayerRef tFromRef, tToRef, rFromRef, rToRef;
 
         boolean tpaHere;
+        // sent to several players at once with a selector
+        boolean bulk;
         long timeout;
+        final long expiresAt;
+        final long createdAt = System.nanoTime();
 
-        Timer timer;
+        TimingWheel.Entry timer;
 
-        public TPARequest(ServerPlayerEntity tFrom, ServerPlayerEntity tTo, boolean tpaHere, int timeoutMS) {
-            this.tFrom = tFrom;
-            this.tTo = tTo;
+        TPARequest(PlayerRef tFromRef, PlayerRef tToRef, boolean tpaHere, int timeoutTicks) {
+            this.tFromRef = tFromRef;
+            this.tToRef = tToRef;
             this.tpaHere = tpaHere;
-            this.timeout = timeoutMS;
-            this.rFrom = tpaHere ? tTo : tFrom;
-            this.rTo = tpaHere ? tFrom : tTo;
+            this.timeout = timeoutTicks;
+            this.expiresAt = System.currentTimeMillis() + timeoutTicks * 50L;
+            this.rFromRef = tpaHere ? tToRef : tFromRef;
+            this.rToRef = tpaHere ? tFromRef : tToRef;
         }
 
-        void setTimeoutCallback(Timeout callback) {
-            timer = new Timer();
-            timer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    callback.onTimeout();
-                }
-            }, timeout);
+        void setTimeoutCallback(TimingWheel wheel, Timeout callback) {
+            timer = wheel.schedule(timeout, callback::onTimeout);
         }
 
         void cancelTimeout() {
-            timer.cancel();
+            if (timer != null) timer.cancel();
         }
 
         @Override
@@ -441,35 +1006,46 @@ public class FabricTPA implements ModInitializer {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             TPARequest that = (TPARequest) o;
-            return tFrom.equals(that.tFrom) &&
-                    tTo.equals(that.tTo);
+            return tFromRef.uuid().equals(that.tFromRef.uuid()) &&
+                    tToRef.uuid().equals(that.tToRef.uuid());
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(tFrom, tTo);
+            return Objects.hash(tFromRef.uuid(), tToRef.uuid());
         }
 
         @Override
         public String toString() {
-            return "TPARequest{" + "tFrom=" + tFrom +
-                    ", tTo=" + tTo +
-                    ", rFrom=" + rFrom +
-                    ", rTo=" + rTo +
+            return "TPARequest{" + "tFrom=" + tFromRef +
+                    ", tTo=" + tToRef +
+                    ", rFrom=" + rFromRef +
+                    ", rTo=" + rToRef +
                     ", tpaHere=" + tpaHere +
+                    ", bulk=" + bulk +
                     '}';
         }
+    }
+
+    record RemotePlayer(PlayerRef ref, String node) {}
+
+    record Notice(PlayerRef to, Supplier<Text> text) {}
 
-        public void refreshPlayers() {
-            this.tFrom = tFrom.server.getPlayerManager().getPlayer(tFrom.getUuid());
-            this.tTo = tTo.server.getPlayerManager().getPlayer(tTo.getUuid());
-            this.rFrom = this.tpaHere ? tTo : tFrom;
-            this.rTo = this.tpaHere ? tFrom : tTo;
-            assert tFrom != null && tTo != null;
+    record QueuedTeleport(TPARequest tr, @Nullable TeleportUtils.Ticket ticket) {}
+
+    record PlayerRef(UUID uuid, String name) {
+        static PlayerRef of(ServerPlayerEntity player) {
+            return new PlayerRef(player.getUuid(), player.getEntityName());
         }
     }
 
     interface Timeout {
         void onTimeout();
     }
+
+    // Returns the state change to queue, or null if the command was rejected
+    interface TPACommand<T> {
+        @Nullable
+        Runnable check(CommandContext<ServerCommandSource> ctx, T target) throws CommandSyntaxException;
+    }
 }
@@ -0,0 +1,195 @@
+package eu.codedsakura.fabrictpa;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+// Reference transport: either between nodes in the same JVM, or between servers on one machine over 127.0.0.1.
+// Batches are handed to peers as encoded bytes either way, socket frames are [int length][batch].
+// A socket connection opens with a [int length][secret] frame, connections with the wrong secret are dropped.
+class LoopbackTransport implements TPATransport {
+    private static final int MAX_BATCH = 4096;
+    // the largest frame encode() can produce: the node name plus MAX_BATCH of the biggest message
+    private static final int MAX_FRAME = TransportMessage.MAX_HEADER_SIZE + MAX_BATCH * TransportMessage.MAX_MESSAGE_SIZE;
+    private static final int MAX_SECRET = 1024;
+    private static final Map<String, LoopbackTransport> inProcess = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+    private final Logger logger;
+    private final List<TransportMessage> outgoing = new ArrayList<>();
+    private final ConcurrentLinkedQueue<byte[]> incoming = new ConcurrentLinkedQueue<>();
+
+    // socket mode only
+    private final int[] peerPorts;
+    private final byte[] secret;
+    private final DataOutputStream[] peers;
+    private ServerSocket serverSocket;
+    private ExecutorService sender;
+    private volatile boolean closed;
+
+    private LoopbackTransport(String nodeId, Logger logger, int[] peerPorts, byte[] secret) {
+        this.nodeId = nodeId;
+        this.logger = logger;
+        this.peerPorts = peerPorts;
+        this.secret = secret;
+        this.peers = new DataOutputStream[peerPorts.length];
+    }
+
+    static LoopbackTransport inProcess(String nodeId, Logger logger) {
+        LoopbackTransport transport = new LoopbackTransport(nodeId, logger, new int[0], new byte[0]);
+        if (inProcess.putIfAbsent(nodeId, transport) != null) throw new IllegalArgumentException("Node " + nodeId + " already exists");
+        return transport;
+    }
+
+    static LoopbackTransport socket(int port, int[] peerPorts, String secret, Logger logger) throws IOException {
+        byte[] secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        if (secretBytes.length > MAX_SECRET) throw new IllegalArgumentException("Transport secret is longer than " + MAX_SECRET + " bytes");
+        LoopbackTransport transport = new LoopbackTransport("node-" + port, logger, peerPorts, secretBytes);
+        transport.serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        transport.sender = Executors.newSingleThreadExecutor(r -> daemon(r, "FabricTPA-transport-sender"));
+        daemon(transport::acceptLoop, "FabricTPA-transport-acceptor").start();
+        return transport;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void publish(TransportMessage message) {
+        outgoing.add(message);
+    }
+
+    @Override
+    public void flush() {
+        for (int from = 0; from < outgoing.size(); from += MAX_BATCH) {
+            byte[] batch = TransportMessage.encode(nodeId, outgoing.subList(from, Math.min(outgoing.size(), from + MAX_BATCH)));
+            if (sender != null) {
+                sender.execute(() -> sendToPeers(batch));
+            } else {
+                inProcess.forEach((id, peer) -> {
+                    if (peer != this) peer.incoming.add(batch);
+                });
+            }
+        }
+        outgoing.clear();
+    }
+
+    @Override
+    public void receive(Consumer<TransportMessage> handler) {
+        byte[] batch;
+        while ((batch = incoming.poll()) != null) {
+            List<TransportMessage> messages;
+            try {
+                messages = TransportMessage.decode(batch);
+            } catch (RuntimeException e) {
+                logger.warn("Dropped malformed transport batch: {}", e.toString());
+                continue;
+            }
+            for (TransportMessage message : messages) handler.accept(message);
+        }
+    }
+
+    @Override
+    public void transfer(UUID player, String node) {
+        // there is no proxy behind a loopback, the destination node still gets ARRIVING and handles the player on join
+        logger.info("Player {} should be moved to {}", player, node);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        inProcess.remove(nodeId, this);
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {}
+        if (sender != null) {
+            sender.execute(() -> {
+                for (int i = 0; i < peers.length; i++) disconnect(i);
+            });
+            sender.shutdown();
+        }
+    }
+
+    private void sendToPeers(byte[] batch) {
+        for (int i = 0; i < peerPorts.length; i++) {
+            try {
+                if (peers[i] == null) {
+                    Socket socket = new Socket(InetAddress.getLoopbackAddress(), peerPorts[i]);
+                    socket.setTcpNoDelay(true);
+                    peers[i] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                    peers[i].writeInt(secret.length);
+                    peers[i].write(secret);
+                }
+                peers[i].writeInt(batch.length);
+                peers[i].write(batch);
+                peers[i].flush();
+            } catch (IOException e) {
+                logger.debug("Peer on port {} is unreachable: {}", peerPorts[i], e.getMessage());
+                disconnect(i);
+            }
+        }
+    }
+
+    private void disconnect(int i) {
+        if (peers[i] == null) return;
+        try {
+            peers[i].close();
+        } catch (IOException ignored) {}
+        peers[i] = null;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                daemon(() -> readLoop(socket), "FabricTPA-transport-reader").start();
+            } catch (IOException e) {
+                if (!closed) logger.warn("Transport accept failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void readLoop(Socket socket) {
+        try (socket; DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            int secretLength = input.readInt();
+            byte[] received = new byte[secretLength >= 0 && secretLength <= MAX_SECRET ? secretLength : 0];
+            input.readFully(received);
+            if (secretLength != received.length || !MessageDigest.isEqual(secret, received)) {
+                logger.warn("Rejected transport connection from port {}, wrong secret", socket.getPort());
+                return;
+            }
+            while (!closed) {
+                int length = input.readInt();
+                if (length <= 0 || length > MAX_FRAME) {
+                    // the stream can't be resynced, dropping the connection makes the peer reconnect on its next flush
+                    logger.warn("Dropping transport connection from port {} after a bad frame length {}", socket.getPort(), length);
+                    return;
+                }
+                byte[] batch = new byte[length];
+                input.readFully(batch);
+                incoming.add(batch);
+            }
+        } catch (IOException ignored) {
+            // peer went away, it reconnects on its next flush
+        }
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
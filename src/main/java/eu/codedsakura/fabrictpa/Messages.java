@@ -0,0 +1,111 @@
+package eu.codedsakura.fabrictpa;
+
+import eu.codedsakura.mods.TextTemplate;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+class Messages {
+    private static final String DEFAULTS = "/assets/FabricTPA/messages.properties";
+
+    private final Properties defaults;
+    private final Properties overrides;
+    private final Logger logger;
+
+    final TextTemplate tpaSelf, tpaHereSelf, duplicate, tooMany, cooldown, noRequest, noActiveRequests, offline, disconnected, throttled;
+    final TextTemplate tpaSent, tpaReceived, tpaTimeoutSender, tpaTimeoutReceiver;
+    final TextTemplate tpaHereSent, tpaHereSentBulk, tpaHereReceived, tpaHereTimeoutSender, tpaHereTimeoutReceiver;
+    final TextTemplate acceptMultiple, acceptMultipleEntry, acceptReceiver, acceptSender, acceptAll;
+    final TextTemplate denyMultiple, denyMultipleEntry, denyReceiver, denySender, denyAll;
+    final TextTemplate cancelMultiple, cancelMultipleEntry, cancelSender, cancelReceiver;
+
+    private Messages(Properties defaults, Properties overrides, Logger logger) {
+        this.defaults = defaults;
+        this.overrides = overrides;
+        this.logger = logger;
+
+        tpaSelf = template("tpa.self");
+        tpaHereSelf = template("tpahere.self");
+        duplicate = template("request.duplicate");
+        tooMany = template("request.too-many");
+        cooldown = template("request.cooldown", "seconds");
+        noRequest = template("request.none");
+        noActiveRequests = template("request.none-active");
+        offline = template("request.offline", "player");
+        disconnected = template("request.disconnected", "player");
+        throttled = template("request.throttled");
+
+        tpaSent = template("tpa.sent", "player", "timeout");
+        tpaReceived = template("tpa.received", "player", "timeout");
+        tpaTimeoutSender = template("tpa.timeout.sender", "player");
+        tpaTimeoutReceiver = template("tpa.timeout.receiver", "player");
+
+        tpaHereSent = template("tpahere.sent", "player", "timeout");
+        tpaHereSentBulk = template("tpahere.sent.bulk", "count", "timeout");
+        tpaHereReceived = template("tpahere.received", "player", "timeout");
+        tpaHereTimeoutSender = template("tpahere.timeout.sender", "player");
+        tpaHereTimeoutReceiver = template("tpahere.timeout.receiver", "player");
+
+        acceptMultiple = template("accept.multiple");
+        acceptMultipleEntry = template("accept.multiple.entry", "player");
+        acceptReceiver = template("accept.receiver");
+        acceptSender = template("accept.sender", "player");
+        acceptAll = template("accept.all", "count");
+
+        denyMultiple = template("deny.multiple");
+        denyMultipleEntry = template("deny.multiple.entry", "player");
+        denyReceiver = template("deny.receiver");
+        denySender = template("deny.sender", "player");
+        denyAll = template("deny.all", "count");
+
+        cancelMultiple = template("cancel.multiple");
+        cancelMultipleEntry = template("cancel.multiple.entry", "player");
+        cancelSender = template("cancel.sender");
+        cancelReceiver = template("cancel.receiver", "player");
+    }
+
+    static Messages load(Path file, Logger logger) {
+        Properties defaults = new Properties();
+        try (InputStream input = Messages.class.getResourceAsStream(DEFAULTS)) {
+            if (input == null) throw new IOException("Missing " + DEFAULTS);
+            defaults.load(new InputStreamReader(input, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to load default messages!", e);
+        }
+
+        Properties overrides = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                overrides.load(reader);
+            } catch (IOException e) {
+                logger.error("Failed to load messages file, using defaults!", e);
+            }
+        } else {
+            try (InputStream input = Messages.class.getResourceAsStream(DEFAULTS)) {
+                if (input != null) Files.copy(input, file);
+            } catch (IOException e) {
+                logger.warn("Failed to write default messages file: {}", e.getMessage());
+            }
+        }
+        return new Messages(defaults, overrides, logger);
+    }
+
+    private TextTemplate template(String key, String... slots) {
+        String override = overrides.getProperty(key);
+        if (override != null) {
+            try {
+                return TextTemplate.compile(override, slots);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid message '{}', using default: {}", key, e.getMessage());
+            }
+        }
+        return TextTemplate.compile(defaults.getProperty(key), slots);
+    }
+}
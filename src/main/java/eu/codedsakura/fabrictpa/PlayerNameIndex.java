@@ -0,0 +1,62 @@
+package eu.codedsakura.fabrictpa;
+
+import java.util.*;
+
+// Online players sorted by lowercase name, so suggestions are a prefix range scan instead of a full filter.
+class PlayerNameIndex {
+    private final TreeMap<String, Entry> byName = new TreeMap<>();
+    private final HashMap<UUID, Entry> byUuid = new HashMap<>();
+
+    public void add(UUID uuid, String name, int involvement) {
+        remove(uuid);
+        Entry entry = new Entry(uuid, name, involvement);
+        byName.put(entry.key, entry);
+        byUuid.put(uuid, entry);
+    }
+
+    public void remove(UUID uuid) {
+        Entry entry = byUuid.remove(uuid);
+        if (entry != null) byName.remove(entry.key);
+    }
+
+    public void addInvolvement(UUID uuid, int delta) {
+        Entry entry = byUuid.get(uuid);
+        if (entry != null) entry.involvement += delta;
+    }
+
+    public Collection<Entry> withPrefix(String prefix) {
+        return withPrefix(byName, prefix.toLowerCase(Locale.ROOT)).values();
+    }
+
+    public int size() {
+        return byUuid.size();
+    }
+
+    public void clear() {
+        byName.clear();
+        byUuid.clear();
+    }
+
+    static <V> SortedMap<String, V> withPrefix(NavigableMap<String, V> map, String lowerPrefix) {
+        if (lowerPrefix.isEmpty()) return map;
+        return map.subMap(lowerPrefix, true, lowerPrefix + Character.MAX_VALUE, false);
+    }
+
+    static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    static class Entry {
+        final UUID uuid;
+        final String name;
+        final String key;
+        int involvement;
+
+        Entry(UUID uuid, String name, int involvement) {
+            this.uuid = uuid;
+            this.name = name;
+            this.key = key(name);
+            this.involvement = involvement;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package eu.codedsakura.fabrictpa;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+
+// Append-only log of pending requests and cooldowns, so restarts don't reset them.
+// Records are [int length][byte type][payload][int crc], replay stops at the first torn or corrupt record.
+// The writer thread keeps a copy of the live state, which is what compaction rewrites the file from.
+class RequestJournal {
+    private static final int MAGIC = 0x54504a31; // "TPJ1"
+    private static final byte REQUEST_ADDED = 1, REQUEST_REMOVED = 2, COOLDOWN = 3;
+    private static final byte TPA_HERE = 1, BULK = 2;
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final long COMPACT_INTERVAL_MS = 10 * 60 * 1000;
+    private static final int MAP_CHUNK = 1 << 20;
+
+    private final Path file;
+    private final Logger logger;
+    private final boolean mmap;
+    private final IntSupplier cooldownSeconds;
+    private final ConcurrentLinkedQueue<Object> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FabricTPA-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CRC32 crc = new CRC32();
+
+    // writer thread state
+    private final HashMap<RequestKey, RequestAdded> liveRequests = new HashMap<>();
+    private final HashMap<UUID, Long> liveCooldowns = new HashMap<>();
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long mappedBase, position;
+    private long lastCompaction;
+
+    RequestJournal(Path file, Logger logger, boolean mmap, IntSupplier cooldownSeconds) {
+        this.file = file;
+        this.logger = logger;
+        this.mmap = mmap;
+        this.cooldownSeconds = cooldownSeconds;
+    }
+
+    // Replays the journal synchronously, then rewrites it compacted and starts the background writer.
+    State open() {
+        State state = new State();
+        try {
+            if (Files.exists(file)) replay(ByteBuffer.wrap(Files.readAllBytes(file)));
+            long now = System.currentTimeMillis();
+            prune(now);
+            state.requests.addAll(liveRequests.values());
+            state.cooldowns.putAll(liveCooldowns);
+            compact(now);
+        } catch (IOException e) {
+            logger.error("Failed to open request journal, pending requests and cooldowns won't persist!", e);
+            return state;
+        }
+        writer.scheduleWithFixedDelay(this::flushSafely, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return state;
+    }
+
+    void requestAdded(FabricTPA.TPARequest tr) {
+        pending.add(new RequestAdded(tr.tFromRef, tr.tToRef, tr.tpaHere, tr.bulk, tr.expiresAt));
+    }
+
+    void requestRemoved(FabricTPA.TPARequest tr) {
+        pending.add(new RequestKey(tr.tFromRef.uuid(), tr.tToRef.uuid()));
+    }
+
+    void cooldown(UUID player, long stamp) {
+        pending.add(new Cooldown(player, stamp));
+    }
+
+    void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) logger.warn("Request journal writer didn't stop in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+        try {
+            if (mapped != null) mapped.force();
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close request journal: {}", e.getMessage());
+        }
+        channel = null;
+        mapped = null;
+    }
+
+    private synchronized void flushSafely() {
+        if (channel == null) {
+            // the journal is unusable, don't let entries pile up
+            pending.clear();
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException | RuntimeException e) {
+            // an uncaught exception would silently cancel the scheduled flush
+            logger.error("Failed to write request journal!", e);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.clear();
+        Object entry;
+        while ((entry = pending.poll()) != null) {
+            if (entry instanceof RequestAdded added) {
+                liveRequests.put(new RequestKey(added.tFrom.uuid(), added.tTo.uuid()), added);
+            } else if (entry instanceof RequestKey key) {
+                liveRequests.remove(key);
+            } else if (entry instanceof Cooldown cooldown) {
+                liveCooldowns.put(cooldown.player, cooldown.stamp);
+            }
+            encode(entry);
+        }
+        if (buffer.position() > 0) {
+            buffer.flip();
+            append(buffer);
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastCompaction >= COMPACT_INTERVAL_MS) {
+            prune(now);
+            compact(now);
+        }
+    }
+
+    private void append(ByteBuffer data) throws IOException {
+        if (mapped == null) {
+            while (data.hasRemaining()) position += channel.write(data, position);
+            channel.force(false);
+            return;
+        }
+        while (data.hasRemaining()) {
+            if (!mapped.hasRemaining()) remap(position);
+            int n = Math.min(data.remaining(), mapped.remaining());
+            mapped.put(mapped.position(), data, data.position(), n);
+            mapped.position(mapped.position() + n);
+            data.position(data.position() + n);
+            position += n;
+        }
+        mapped.force();
+    }
+
+    private void remap(long at) throws IOException {
+        mappedBase = at;
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, mappedBase, MAP_CHUNK);
+    }
+
+    // Rewrites the file with only the live entries, then swaps it in atomically.
+    // If that fails, the old file is reopened at its previous end so appends carry on.
+    private void compact(long now) throws IOException {
+        boolean reopen = channel != null;
+        long end = position;
+        if (channel != null) channel.close();
+        channel = null;
+        mapped = null;
+        // a failed attempt is retried at the next interval, not on every flush
+        lastCompaction = now;
+
+        boolean swapped = false;
+        try {
+            buffer.clear();
+            buffer.putInt(MAGIC);
+            for (RequestAdded added : liveRequests.values()) encode(added);
+            for (Map.Entry<UUID, Long> cooldown : liveCooldowns.entrySet()) encode(new Cooldown(cooldown.getKey(), cooldown.getValue()));
+            buffer.flip();
+
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) out.write(buffer);
+                out.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            swapped = true;
+        } finally {
+            if (swapped || reopen) {
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                // a mapped file is padded past its last record, so the old end has to be kept
+                position = swapped ? channel.size() : end;
+                if (mmap) remap(position);
+            }
+        }
+    }
+
+    private void prune(long nowMillis) {
+        long now = nowMillis / 1000;
+        int cooldown = cooldownSeconds.getAsInt();
+        liveRequests.values().removeIf(added -> added.expiresAt <= nowMillis);
+        liveCooldowns.values().removeIf(stamp -> now - stamp >= cooldown);
+    }
+
+    private void replay(ByteBuffer data) {
+        if (data.remaining() < 4 || data.getInt() != MAGIC) {
+            logger.warn("Request journal has an unknown format, ignoring it");
+            return;
+        }
+        int records = 0;
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            int length = data.getInt();
+            if (length <= 0 || length + 4 > data.remaining()) break;
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            int end = data.position() + length;
+            if ((int) crc.getValue() != data.getInt(end)) {
+                logger.warn("Request journal is corrupt at offset {}, dropping the rest", start);
+                break;
+            }
+            try {
+                apply(data);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                logger.warn("Request journal has a malformed record at offset {}, dropping the rest", start);
+                break;
+            }
+            data.position(end + 4);
+            records++;
+        }
+        logger.info("Replayed {} journal records, {} pending requests and {} cooldowns", records, liveRequests.size(), liveCooldowns.size());
+    }
+
+    private void apply(ByteBuffer data) {
+        byte type = data.get();
+        switch (type) {
+            case REQUEST_ADDED -> {
+                FabricTPA.PlayerRef tFrom = new FabricTPA.PlayerRef(readUuid(data), readName(data));
+                FabricTPA.PlayerRef tTo = new FabricTPA.PlayerRef(readUuid(data), readName(data));
+                byte flags = data.get();
+                RequestAdded added = new RequestAdded(tFrom, tTo, (flags & TPA_HERE) != 0, (flags & BULK) != 0, data.getLong());
+                liveRequests.put(new RequestKey(tFrom.uuid(), tTo.uuid()), added);
+            }
+            case REQUEST_REMOVED -> liveRequests.remove(new RequestKey(readUuid(data), readUuid(data)));
+            case COOLDOWN -> liveCooldowns.put(readUuid(data), data.getLong());
+            default -> throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    private void encode(Object entry) {
+        int start;
+        if (entry instanceof RequestAdded added) {
+            byte[] tFromName = nameBytes(added.tFrom.name()), tToName = nameBytes(added.tTo.name());
+            start = begin(REQUEST_ADDED, 16 + 1 + tFromName.length + 16 + 1 + tToName.length + 1 + 8);
+            writeUuid(added.tFrom.uuid());
+            writeName(tFromName);
+            writeUuid(added.tTo.uuid());
+            writeName(tToName);
+            buffer.put((byte) ((added.tpaHere ? TPA_HERE : 0) | (added.bulk ? BULK : 0)));
+            buffer.putLong(added.expiresAt);
+        } else if (entry instanceof RequestKey key) {
+            start = begin(REQUEST_REMOVED, 16 + 16);
+            writeUuid(key.tFrom);
+            writeUuid(key.tTo);
+        } else if (entry instanceof Cooldown cooldown) {
+            start = begin(COOLDOWN, 16 + 8);
+            writeUuid(cooldown.player);
+            buffer.putLong(cooldown.stamp);
+        } else {
+            return;
+        }
+        int length = buffer.position() - start - 4;
+        buffer.putInt(start, length);
+        crc.reset();
+        crc.update(buffer.array(), start + 4, length);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    // Makes room for the whole record and writes its type, returns where the length prefix goes
+    private int begin(byte type, int payload) {
+        ensureCapacity(4 + 1 + payload + 4);
+        int start = buffer.position();
+        buffer.position(start + 4);
+        buffer.put(type);
+        return start;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (buffer.remaining() >= extra) return;
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    private void writeUuid(UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private void writeName(byte[] bytes) {
+        buffer.put((byte) bytes.length);
+        buffer.put(bytes);
+    }
+
+    // names are length-prefixed with a single byte
+    private static byte[] nameBytes(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return bytes.length > 255 ? Arrays.copyOf(bytes, 255) : bytes;
+    }
+
+    private static UUID readUuid(ByteBuffer data) {
+        return new UUID(data.getLong(), data.getLong());
+    }
+
+    private static String readName(ByteBuffer data) {
+        byte[] bytes = new byte[data.get() & 0xff];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static class State {
+        final List<RequestAdded> requests = new ArrayList<>();
+        final Map<UUID, Long> cooldowns = new HashMap<>();
+    }
+
+    record RequestAdded(FabricTPA.PlayerRef tFrom, FabricTPA.PlayerRef tTo, boolean tpaHere, boolean bulk, long expiresAt) {}
+
+    private record RequestKey(UUID tFrom, UUID tTo) {}
+
+    private record Cooldown(UUID player, long stamp) {}
+}
@@ -0,0 +1,114 @@
+package eu.codedsakura.fabrictpa;
+
+import java.util.*;
+
+class RequestStore {
+    private final HashMap<UUID, LinkedHashMap<UUID, FabricTPA.TPARequest>> byRequester = new HashMap<>();
+    private final HashMap<UUID, LinkedHashMap<UUID, FabricTPA.TPARequest>> byReceiver = new HashMap<>();
+    private final HashMap<RequestKey, FabricTPA.TPARequest> byTeleport = new HashMap<>();
+    private final HashMap<UUID, TreeMap<String, String>> incomingNames = new HashMap<>();
+    private final HashMap<UUID, TreeMap<String, String>> outgoingNames = new HashMap<>();
+    private final PlayerNameIndex names;
+
+    public RequestStore(PlayerNameIndex names) {
+        this.names = names;
+    }
+
+    public boolean contains(FabricTPA.TPARequest tr) {
+        return byTeleport.containsKey(new RequestKey(tr.tFromRef.uuid(), tr.tToRef.uuid()))
+                || get(tr.rFromRef.uuid(), tr.rToRef.uuid()) != null;
+    }
+
+    public void add(FabricTPA.TPARequest tr) {
+        UUID rFrom = tr.rFromRef.uuid(), rTo = tr.rToRef.uuid();
+        byTeleport.put(new RequestKey(tr.tFromRef.uuid(), tr.tToRef.uuid()), tr);
+        byRequester.computeIfAbsent(rFrom, k -> new LinkedHashMap<>()).put(rTo, tr);
+        byReceiver.computeIfAbsent(rTo, k -> new LinkedHashMap<>()).put(rFrom, tr);
+        String rFromName = tr.rFromRef.name(), rToName = tr.rToRef.name();
+        outgoingNames.computeIfAbsent(rFrom, k -> new TreeMap<>()).put(PlayerNameIndex.key(rToName), rToName);
+        incomingNames.computeIfAbsent(rTo, k -> new TreeMap<>()).put(PlayerNameIndex.key(rFromName), rFromName);
+        names.addInvolvement(rFrom, 1);
+        names.addInvolvement(rTo, 1);
+    }
+
+    public boolean remove(FabricTPA.TPARequest tr) {
+        if (byTeleport.remove(new RequestKey(tr.tFromRef.uuid(), tr.tToRef.uuid()), tr)) {
+            UUID rFrom = tr.rFromRef.uuid(), rTo = tr.rToRef.uuid();
+            removeFromIndex(byRequester, rFrom, rTo);
+            removeFromIndex(byReceiver, rTo, rFrom);
+            removeFromIndex(outgoingNames, rFrom, PlayerNameIndex.key(tr.rToRef.name()));
+            removeFromIndex(incomingNames, rTo, PlayerNameIndex.key(tr.rFromRef.name()));
+            names.addInvolvement(rFrom, -1);
+            names.addInvolvement(rTo, -1);
+            return true;
+        }
+        return false;
+    }
+
+    public FabricTPA.TPARequest get(UUID rFrom, UUID rTo) {
+        LinkedHashMap<UUID, FabricTPA.TPARequest> outgoing = byRequester.get(rFrom);
+        return outgoing == null ? null : outgoing.get(rTo);
+    }
+
+    public Collection<FabricTPA.TPARequest> getOutgoing(UUID rFrom) {
+        LinkedHashMap<UUID, FabricTPA.TPARequest> outgoing = byRequester.get(rFrom);
+        return outgoing == null ? Collections.emptyList() : Collections.unmodifiableCollection(outgoing.values());
+    }
+
+    public Collection<FabricTPA.TPARequest> getIncoming(UUID rTo) {
+        LinkedHashMap<UUID, FabricTPA.TPARequest> incoming = byReceiver.get(rTo);
+        return incoming == null ? Collections.emptyList() : Collections.unmodifiableCollection(incoming.values());
+    }
+
+    public int countOutgoing(UUID rFrom) {
+        LinkedHashMap<UUID, FabricTPA.TPARequest> outgoing = byRequester.get(rFrom);
+        return outgoing == null ? 0 : outgoing.size();
+    }
+
+    public int countInvolving(UUID player) {
+        LinkedHashMap<UUID, FabricTPA.TPARequest> incoming = byReceiver.get(player);
+        return countOutgoing(player) + (incoming == null ? 0 : incoming.size());
+    }
+
+    public Collection<String> getOutgoingNames(UUID rFrom, String prefix) {
+        return namesWithPrefix(outgoingNames.get(rFrom), prefix);
+    }
+
+    public Collection<String> getIncomingNames(UUID rTo, String prefix) {
+        return namesWithPrefix(incomingNames.get(rTo), prefix);
+    }
+
+    public Collection<FabricTPA.TPARequest> values() {
+        return Collections.unmodifiableCollection(byTeleport.values());
+    }
+
+    public int size() {
+        return byTeleport.size();
+    }
+
+    public void clear() {
+        for (FabricTPA.TPARequest tr : byTeleport.values()) {
+            names.addInvolvement(tr.rFromRef.uuid(), -1);
+            names.addInvolvement(tr.rToRef.uuid(), -1);
+        }
+        byTeleport.clear();
+        byRequester.clear();
+        byReceiver.clear();
+        incomingNames.clear();
+        outgoingNames.clear();
+    }
+
+    private static Collection<String> namesWithPrefix(TreeMap<String, String> names, String prefix) {
+        if (names == null) return Collections.emptyList();
+        return PlayerNameIndex.withPrefix(names, prefix.toLowerCase(Locale.ROOT)).values();
+    }
+
+    private static <K, V> void removeFromIndex(HashMap<UUID, ? extends Map<K, V>> index, UUID key, K other) {
+        Map<K, V> requests = index.get(key);
+        if (requests == null) return;
+        requests.remove(other);
+        if (requests.isEmpty()) index.remove(key);
+    }
+
+    private record RequestKey(UUID from, UUID to) {}
+}
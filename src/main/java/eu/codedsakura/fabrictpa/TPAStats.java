@@ -0,0 +1,100 @@
+package eu.codedsakura.fabrictpa;
+
+import eu.codedsakura.mods.Histogram;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Counters are plain atomics and histograms are pre-allocated, so recording from the tick never locks or allocates.
+public class TPAStats implements TPAStatsMBean {
+    private static final String OBJECT_NAME = "eu.codedsakura.fabrictpa:type=Stats";
+
+    final AtomicLong created = new AtomicLong();
+    final AtomicLong accepted = new AtomicLong();
+    final AtomicLong denied = new AtomicLong();
+    final AtomicLong cancelled = new AtomicLong();
+    final AtomicLong timedOut = new AtomicLong();
+    final AtomicLong cooldownRejections = new AtomicLong();
+    final AtomicLong rateLimitRejections = new AtomicLong();
+
+    final Histogram acceptMillis = new Histogram();
+    final Histogram standStillTicks = new Histogram();
+    final Histogram movementResets = new Histogram();
+    final Histogram tickMicros = new Histogram();
+
+    private volatile int pendingRequests, pendingWarmUps, loadLevel;
+    private volatile long lastTickMicros;
+
+    private final Logger logger;
+    private ObjectName registered;
+
+    TPAStats(Logger logger) {
+        this.logger = logger;
+    }
+
+    void recordTick(long nanos, int pendingRequests, int pendingWarmUps, int loadLevel) {
+        long micros = nanos / 1000;
+        lastTickMicros = micros;
+        tickMicros.record(micros);
+        this.pendingRequests = pendingRequests;
+        this.pendingWarmUps = pendingWarmUps;
+        this.loadLevel = loadLevel;
+    }
+
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            registered = name;
+        } catch (JMException e) {
+            logger.warn("Failed to register JMX stats: {}", e.getMessage());
+        }
+    }
+
+    void unregister() {
+        if (registered == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registered);
+        } catch (JMException e) {
+            logger.warn("Failed to unregister JMX stats: {}", e.getMessage());
+        }
+        registered = null;
+    }
+
+    @Override public long getRequestsCreated() { return created.get(); }
+    @Override public long getRequestsAccepted() { return accepted.get(); }
+    @Override public long getRequestsDenied() { return denied.get(); }
+    @Override public long getRequestsCancelled() { return cancelled.get(); }
+    @Override public long getRequestsTimedOut() { return timedOut.get(); }
+    @Override public long getCooldownRejections() { return cooldownRejections.get(); }
+    @Override public long getRateLimitRejections() { return rateLimitRejections.get(); }
+
+    @Override public int getPendingRequests() { return pendingRequests; }
+    @Override public int getPendingWarmUps() { return pendingWarmUps; }
+    @Override public int getLoadLevel() { return loadLevel; }
+    @Override public long getLastTickMicros() { return lastTickMicros; }
+
+    @Override public double getAcceptMillisMean() { return acceptMillis.getMean(); }
+    @Override public long getAcceptMillisP50() { return acceptMillis.getPercentile(50); }
+    @Override public long getAcceptMillisP99() { return acceptMillis.getPercentile(99); }
+    @Override public long getAcceptMillisMax() { return acceptMillis.getMax(); }
+
+    @Override public double getStandStillTicksMean() { return standStillTicks.getMean(); }
+    @Override public long getStandStillTicksP50() { return standStillTicks.getPercentile(50); }
+    @Override public long getStandStillTicksP99() { return standStillTicks.getPercentile(99); }
+    @Override public long getStandStillTicksMax() { return standStillTicks.getMax(); }
+
+    @Override public double getMovementResetsMean() { return movementResets.getMean(); }
+    @Override public long getMovementResetsP99() { return movementResets.getPercentile(99); }
+    @Override public long getMovementResetsMax() { return movementResets.getMax(); }
+
+    @Override public double getTickMicrosMean() { return tickMicros.getMean(); }
+    @Override public long getTickMicrosP99() { return tickMicros.getPercentile(99); }
+    @Override public long getTickMicrosMax() { return tickMicros.getMax(); }
+}
@@ -0,0 +1,34 @@
+package eu.codedsakura.fabrictpa;
+
+public interface TPAStatsMBean {
+    long getRequestsCreated();
+    long getRequestsAccepted();
+    long getRequestsDenied();
+    long getRequestsCancelled();
+    long getRequestsTimedOut();
+    long getCooldownRejections();
+    long getRateLimitRejections();
+
+    int getPendingRequests();
+    int getPendingWarmUps();
+    int getLoadLevel();
+    long getLastTickMicros();
+
+    double getAcceptMillisMean();
+    long getAcceptMillisP50();
+    long getAcceptMillisP99();
+    long getAcceptMillisMax();
+
+    double getStandStillTicksMean();
+    long getStandStillTicksP50();
+    long getStandStillTicksP99();
+    long getStandStillTicksMax();
+
+    double getMovementResetsMean();
+    long getMovementResetsP99();
+    long getMovementResetsMax();
+
+    double getTickMicrosMean();
+    long getTickMicrosP99();
+    long getTickMicrosMax();
+}
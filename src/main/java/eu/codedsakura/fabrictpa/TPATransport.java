@@ -0,0 +1,22 @@
+package eu.codedsakura.fabrictpa;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Carries request events between servers behind the same proxy. Everything is called from the server thread:
+// publish() only queues, flush() sends the tick's messages as one batch, receive() dispatches what peers sent.
+interface TPATransport extends AutoCloseable {
+    String getNodeId();
+
+    void publish(TransportMessage message);
+
+    void flush();
+
+    void receive(Consumer<TransportMessage> handler);
+
+    // Asks the proxy to move a player to another node, called once their warm-up is done
+    void transfer(UUID player, String node);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,145 @@
+package eu.codedsakura.fabrictpa;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// One cross-server event. Batches are [node][short count] followed by [byte type][payload] per message,
+// payloads only carry the fields their type needs.
+record TransportMessage(byte type, String node, UUID first, String firstName, UUID second, String secondName, boolean tpaHere, long expiresAt) {
+    static final byte PLAYER_JOINED = 1, PLAYER_LEFT = 2, SYNC = 3;
+    static final byte REQUEST = 4, ACCEPTED = 5, DENIED = 6, CANCELLED = 7, TIMED_OUT = 8, ARRIVING = 9;
+    // strings are cut to what their one-byte length prefix can hold
+    private static final int MAX_STRING = 255;
+    static final int MAX_HEADER_SIZE = 1 + MAX_STRING + 2;
+    static final int MAX_MESSAGE_SIZE = 1 + 16 + 1 + MAX_STRING + 16 + 1 + MAX_STRING + 1 + 8;
+
+    static TransportMessage playerJoined(FabricTPA.PlayerRef player) {
+        return new TransportMessage(PLAYER_JOINED, null, player.uuid(), player.name(), null, null, false, 0);
+    }
+
+    static TransportMessage playerLeft(UUID player) {
+        return new TransportMessage(PLAYER_LEFT, null, player, null, null, null, false, 0);
+    }
+
+    static TransportMessage sync() {
+        return new TransportMessage(SYNC, null, null, null, null, null, false, 0);
+    }
+
+    static TransportMessage request(FabricTPA.TPARequest tr) {
+        return new TransportMessage(REQUEST, null, tr.tFromRef.uuid(), tr.tFromRef.name(), tr.tToRef.uuid(), tr.tToRef.name(), tr.tpaHere, tr.expiresAt);
+    }
+
+    // ACCEPTED, DENIED, CANCELLED, TIMED_OUT and ARRIVING only need to identify the request
+    static TransportMessage of(byte type, FabricTPA.TPARequest tr) {
+        return new TransportMessage(type, null, tr.tFromRef.uuid(), null, tr.tToRef.uuid(), null, tr.tpaHere, 0);
+    }
+
+    FabricTPA.PlayerRef firstRef() {
+        return new FabricTPA.PlayerRef(first, firstName);
+    }
+
+    FabricTPA.PlayerRef secondRef() {
+        return new FabricTPA.PlayerRef(second, secondName);
+    }
+
+    static byte[] encode(String node, List<TransportMessage> messages) {
+        int size = stringSize(node) + 2;
+        for (TransportMessage message : messages) size += message.size();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        putString(buffer, node);
+        buffer.putShort((short) messages.size());
+        for (TransportMessage message : messages) {
+            buffer.put(message.type);
+            switch (message.type) {
+                case PLAYER_JOINED -> {
+                    putUuid(buffer, message.first);
+                    putString(buffer, message.firstName);
+                }
+                case PLAYER_LEFT -> putUuid(buffer, message.first);
+                case SYNC -> {}
+                case REQUEST -> {
+                    putUuid(buffer, message.first);
+                    putString(buffer, message.firstName);
+                    putUuid(buffer, message.second);
+                    putString(buffer, message.secondName);
+                    buffer.put((byte) (message.tpaHere ? 1 : 0));
+                    buffer.putLong(message.expiresAt);
+                }
+                default -> {
+                    putUuid(buffer, message.first);
+                    putUuid(buffer, message.second);
+                    buffer.put((byte) (message.tpaHere ? 1 : 0));
+                }
+            }
+        }
+        byte[] out = new byte[buffer.position()];
+        buffer.flip().get(out);
+        return out;
+    }
+
+    static List<TransportMessage> decode(byte[] batch) {
+        ByteBuffer buffer = ByteBuffer.wrap(batch);
+        String node = getString(buffer);
+        int count = buffer.getShort() & 0xffff;
+        List<TransportMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte type = buffer.get();
+            messages.add(switch (type) {
+                case PLAYER_JOINED -> new TransportMessage(type, node, getUuid(buffer), getString(buffer), null, null, false, 0);
+                case PLAYER_LEFT -> new TransportMessage(type, node, getUuid(buffer), null, null, null, false, 0);
+                case SYNC -> new TransportMessage(type, node, null, null, null, null, false, 0);
+                case REQUEST -> new TransportMessage(type, node, getUuid(buffer), getString(buffer), getUuid(buffer), getString(buffer),
+                        buffer.get() != 0, buffer.getLong());
+                case ACCEPTED, DENIED, CANCELLED, TIMED_OUT, ARRIVING -> new TransportMessage(type, node, getUuid(buffer), null, getUuid(buffer), null,
+                        buffer.get() != 0, 0);
+                default -> throw new IllegalArgumentException("Unknown message type " + type);
+            });
+        }
+        return messages;
+    }
+
+    // an upper bound, exact unless a string has unpaired surrogates or gets cut
+    private int size() {
+        return 1 + switch (type) {
+            case PLAYER_JOINED -> 16 + stringSize(firstName);
+            case PLAYER_LEFT -> 16;
+            case SYNC -> 0;
+            case REQUEST -> 16 + stringSize(firstName) + 16 + stringSize(secondName) + 1 + 8;
+            default -> 16 + 16 + 1;
+        };
+    }
+
+    private static int stringSize(String value) {
+        int bytes = 0;
+        for (int i = 0; i < value.length() && bytes < MAX_STRING; i++) {
+            char c = value.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return 1 + Math.min(bytes, MAX_STRING);
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID getUuid(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING);
+        buffer.put((byte) length);
+        buffer.put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get() & 0xff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -2,7 +2,9 @@ package eu.codedsakura.mods;
 
 import com.mojang.brigadier.arguments.ArgumentType;
 import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.DoubleArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
@@ -13,8 +15,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
 import static net.minecraft.server.command.CommandManager.argument;
@@ -25,70 +34,291 @@ public class ConfigUtils {
     public List<IConfigValue> values;
     private final File file;
     private final Logger logger;
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private static final long RELOAD_DEBOUNCE_MS = 500;
+    private static final long SAVE_DEBOUNCE_MS = 1000;
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ConfigUtils-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Thread watcherThread;
+    private WatchService watchService;
 
     public ConfigUtils(File file, Logger logger, List<IConfigValue> values) {
         this.file = file;
         this.logger = logger;
         this.values = values;
-        this.read();
-        this.save();
+        for (int i = 0; i < values.size(); i++) values.get(i).index = i;
+        if (this.read()) this.save();
     }
 
-    public void read() {
+    // returns whether the file is missing any values and should be written back
+    public boolean read() {
+        boolean incomplete = false;
+        Object[] read = new Object[values.size()];
+        for (IConfigValue value : values) read[value.index] = value.defaultValue;
         Properties props = new Properties();
         try (InputStream input = new FileInputStream(file)) {
             logger.debug("Reading config...");
             props.load(input);
-            this.values.forEach(value -> value.value = value.getFromProps(props));
+            for (IConfigValue value : values) {
+                if (props.getProperty(value.name) == null) {
+                    incomplete = true;
+                    continue;
+                }
+                try {
+                    read[value.index] = parseValue(value, props);
+                } catch (Exception e) {
+                    logger.fatal("Failed to parse config value '{}'!", value.name);
+                    e.printStackTrace();
+                    incomplete = true;
+                }
+            }
         } catch (FileNotFoundException ignored) {
             logger.debug("Initialising config...");
-            this.values.forEach(value -> value.value = value.defaultValue);
+            incomplete = true;
         } catch (IOException e) {
             logger.fatal("Failed to load config file!");
             e.printStackTrace();
-        } catch (Exception e) {
-            logger.fatal("Failed to parse the config!");
-            e.printStackTrace();
         }
+        snapshot.set(new Snapshot(read));
+        return incomplete;
+    }
+
+    private Object parseValue(IConfigValue value, Properties props) {
+        Object parsed = value.getFromProps(props);
+        if (!value.isValid(parsed)) throw new IllegalArgumentException("Value " + parsed + " is out of range for '" + value.name + "'");
+        return parsed;
+    }
+
+    private void reload() {
+        Properties props = new Properties();
+        try (InputStream input = new FileInputStream(file)) {
+            props.load(input);
+        } catch (IOException e) {
+            logger.warn("Failed to reload config file: {}", e.getMessage());
+            return;
+        }
+
+        // null entries are missing from the file and keep their current value
+        Object[] parsed = new Object[values.size()];
+        for (IConfigValue value : values) {
+            if (props.getProperty(value.name) == null) continue;
+            try {
+                parsed[value.index] = parseValue(value, props);
+            } catch (Exception e) {
+                logger.error("Rejected config change, invalid value for '{}': {}", value.name, e.getMessage());
+                return;
+            }
+        }
+
+        // a command may set a value concurrently, re-apply the file on top of whatever it left
+        while (true) {
+            Snapshot current = snapshot.get();
+            Object[] read = current.values.clone();
+            for (int i = 0; i < parsed.length; i++) {
+                if (parsed[i] != null) read[i] = parsed[i];
+            }
+            if (Arrays.equals(read, current.values)) return;
+            if (snapshot.compareAndSet(current, new Snapshot(read))) {
+                logger.info("Reloaded config from disk");
+                return;
+            }
+        }
+    }
+
+    public synchronized void startWatching() {
+        if (watcherThread != null) return;
+        Path path = file.toPath().toAbsolutePath();
+        try {
+            watchService = path.getFileSystem().newWatchService();
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.error("Failed to watch config file for changes!", e);
+            return;
+        }
+        WatchService service = watchService;
+        Path fileName = path.getFileName();
+        watcherThread = new Thread(() -> {
+            try {
+                while (true) {
+                    if (!affects(service.take(), fileName)) continue;
+                    // wait for the edit to settle before reading
+                    WatchKey key;
+                    while ((key = service.poll(RELOAD_DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) affects(key, fileName);
+                    reload();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ignored) {
+            }
+        }, "ConfigUtils-watcher-" + fileName);
+        watcherThread.setDaemon(true);
+        watcherThread.start();
     }
-    public void save() {
+
+    public synchronized void stopWatching() {
+        if (watcherThread == null) return;
+        watcherThread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException ignored) {
+        }
+        watcherThread = null;
+        watchService = null;
+    }
+
+    private static boolean affects(WatchKey key, Path fileName) {
+        boolean affected = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (fileName.equals(event.context())) affected = true;
+        }
+        key.reset();
+        return affected;
+    }
+
+    public synchronized void save() {
         Properties props = new Properties();
-        this.values.forEach(value -> value.setToProps(props));
+        Snapshot current = snapshot.get();
+        this.values.forEach(value -> value.setToProps(props, current.values[value.index]));
         logger.debug("Updating config...");
-        try (OutputStream output = new FileOutputStream(file)) {
-            props.store(output, null);
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream output = new FileOutputStream(temp.toFile())) {
+                props.store(output, null);
+                output.getChannel().force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (IOException e) {
-            logger.fatal("Failed to load config file!");
+            logger.fatal("Failed to save config file!");
             e.printStackTrace();
         }
     }
 
+    public void requestSave() {
+        if (savePending.compareAndSet(false, true)) {
+            writer.schedule(this::flush, SAVE_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void flush() {
+        if (savePending.compareAndSet(true, false)) save();
+    }
+
     public LiteralArgumentBuilder<ServerCommandSource> generateCommand(String commandName, Predicate<ServerCommandSource> requirement) {
         LiteralArgumentBuilder<ServerCommandSource> out =
                 literal(commandName).requires(requirement)
                         .executes(ctx -> {
+                            Snapshot current = snapshot.get();
                             values.stream().filter(v -> v.command != null).forEach(value ->
-                                    ctx.getSource().sendFeedback(Text.translatable(value.command.getterText, value.value), false));
+                                    ctx.getSource().sendFeedback(Text.translatable(value.command.getterText, current.values[value.index]), false));
                             return 1;
                         });
         values.stream().filter(v -> v.command != null).forEach(value ->
                 out.then(literal(value.name)
                         .executes(ctx -> {
-                            ctx.getSource().sendFeedback(Text.translatable(value.command.getterText, value.value), false);
+                            ctx.getSource().sendFeedback(Text.translatable(value.command.getterText, snapshot.get().values[value.index]), false);
                             return 1;
                         })
                         .then(argument(value.name, value.getArgumentType()).suggests(value.suggestions)
                                 .executes(ctx -> {
-                                    value.value = value.parseArgumentValue(ctx);
-                                    ((CommandContext<ServerCommandSource>) ctx).getSource().sendFeedback(Text.translatable(value.command.setterText, value.value), true);
-                                    this.save();
+                                    Object newValue = value.parseArgumentValue(ctx);
+                                    set(value, newValue);
+                                    ((CommandContext<ServerCommandSource>) ctx).getSource().sendFeedback(Text.translatable(value.command.setterText, newValue), true);
+                                    this.requestSave();
                                     return 1;
                                 }))));
         return out;
     }
 
+    private void set(IConfigValue value, Object newValue) {
+        snapshot.updateAndGet(current -> {
+            Object[] updated = current.values.clone();
+            updated[value.index] = newValue;
+            return new Snapshot(updated);
+        });
+    }
+
     public Object getValue(String name) {
-        return values.stream().filter(value -> value.name.equals(name)).findFirst().map(iConfigValue -> iConfigValue.value).orElse(null);
+        Snapshot current = snapshot.get();
+        return values.stream().filter(value -> value.name.equals(name)).findFirst().map(iConfigValue -> current.values[iConfigValue.index]).orElse(null);
+    }
+
+    public <T> ConfigKey<T> key(String name, Class<T> type) {
+        for (IConfigValue value : values) {
+            if (!value.name.equals(name)) continue;
+            if (!type.isInstance(value.defaultValue)) {
+                throw new IllegalArgumentException("Config value '" + name + "' is not of type " + type.getSimpleName());
+            }
+            return new ConfigKey<>(value.index);
+        }
+        throw new IllegalArgumentException("Unknown config value '" + name + "'");
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    public int getInt(ConfigKey<Integer> key) {
+        return snapshot.get().ints[key.index];
+    }
+
+    public boolean getBoolean(ConfigKey<Boolean> key) {
+        return snapshot.get().ints[key.index] != 0;
+    }
+
+    public double getDouble(ConfigKey<Double> key) {
+        return snapshot.get().doubles[key.index];
+    }
+
+    public <T> T get(ConfigKey<T> key) {
+        return (T) snapshot.get().values[key.index];
+    }
+
+    public static final class ConfigKey<T> {
+        private final int index;
+
+        private ConfigKey(int index) {
+            this.index = index;
+        }
+    }
+
+    public static final class Snapshot {
+        private final Object[] values;
+        private final int[] ints;
+        private final double[] doubles;
+
+        private Snapshot(Object[] values) {
+            this.values = values;
+            this.ints = new int[values.length];
+            this.doubles = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] instanceof Integer intValue) ints[i] = intValue;
+                else if (values[i] instanceof Boolean boolValue) ints[i] = boolValue ? 1 : 0;
+                else if (values[i] instanceof Double doubleValue) doubles[i] = doubleValue;
+            }
+        }
+
+        public int getInt(ConfigKey<Integer> key) {
+            return ints[key.index];
+        }
+
+        public boolean getBoolean(ConfigKey<Boolean> key) {
+            return ints[key.index] != 0;
+        }
+
+        public double getDouble(ConfigKey<Double> key) {
+            return doubles[key.index];
+        }
+
+        public <T> T get(ConfigKey<T> key) {
+            return (T) values[key.index];
+        }
     }
 
     public abstract static class IConfigValue<T> {
@@ -97,7 +327,7 @@ public class ConfigUtils {
         protected final String comment;
         protected final Command command;
         protected final SuggestionProvider<T> suggestions;
-        protected T value;
+        protected int index = -1;
 
         public IConfigValue(@NotNull String name, T defaultValue, @Nullable String comment, @Nullable Command command, @Nullable SuggestionProvider<T> suggestions) {
             this.name = name;
@@ -108,7 +338,10 @@ public class ConfigUtils {
         }
 
         public abstract T getFromProps(Properties props);
-        public void setToProps(Properties props) {
+        public boolean isValid(T value) {
+            return value != null;
+        }
+        public void setToProps(Properties props, T value) {
             props.setProperty(name, String.valueOf(value));
             if (comment != null) props.setProperty(name + ".comment", comment);
         }
@@ -137,6 +370,11 @@ public class ConfigUtils {
             return Integer.parseInt(props.getProperty(name));
         }
 
+        @Override
+        public boolean isValid(Integer value) {
+            return value != null && value >= limits.min && value <= limits.max;
+        }
+
         @Override
         public ArgumentType<Integer> getArgumentType() {
             return IntegerArgumentType.integer(limits.min, limits.max);
@@ -159,6 +397,75 @@ public class ConfigUtils {
         }
     }
 
+    public static class DoubleConfigValue extends IConfigValue<Double> {
+        protected final double defaultValue;
+        private final DoubleLimits limits;
+
+        public DoubleConfigValue(@NotNull String name, Double defaultValue, DoubleLimits limits, @Nullable String comment, @Nullable Command command, SuggestionProvider<Double> suggestions) {
+            super(name, defaultValue, comment, command, suggestions);
+            this.defaultValue = defaultValue;
+            this.limits = limits;
+        }
+        public DoubleConfigValue(@NotNull String name, Double defaultValue, DoubleLimits limits, @Nullable Command command) {
+            this(name, defaultValue, limits, null, command, null);
+        }
+
+        @Override
+        public Double getFromProps(Properties props) {
+            return Double.parseDouble(props.getProperty(name));
+        }
+
+        @Override
+        public boolean isValid(Double value) {
+            return value != null && value >= limits.min && value <= limits.max;
+        }
+
+        @Override
+        public ArgumentType<Double> getArgumentType() {
+            return DoubleArgumentType.doubleArg(limits.min, limits.max);
+        }
+        @Override
+        public Double parseArgumentValue(CommandContext<ServerCommandSource> ctx) {
+            return DoubleArgumentType.getDouble(ctx, name);
+        }
+
+        public static class DoubleLimits {
+            double min = -Double.MAX_VALUE, max = Double.MAX_VALUE;
+            public DoubleLimits() {}
+            public DoubleLimits(double min) {
+                this.min = min;
+            }
+            public DoubleLimits(double min, double max) {
+                this.min = min;
+                this.max = max;
+            }
+        }
+    }
+
+    public static class StringConfigValue extends IConfigValue<String> {
+        public StringConfigValue(@NotNull String name, String defaultValue, @Nullable String comment, @Nullable Command command, @Nullable SuggestionProvider<String> suggestions) {
+            super(name, defaultValue, comment, command, suggestions);
+        }
+        public StringConfigValue(@NotNull String name, String defaultValue, @Nullable Command command) {
+            this(name, defaultValue, null, command, null);
+        }
+
+        @Override
+        public String getFromProps(Properties props) {
+            return props.getProperty(name);
+        }
+
+        @Override
+        public ArgumentType<String> getArgumentType() {
+            return StringArgumentType.string();
+        }
+
+        @Override
+        public String parseArgumentValue(CommandContext<ServerCommandSource> ctx) {
+            return StringArgumentType.getString(ctx, name);
+        }
+    }
+
     public static class BooleanConfigValue extends IConfigValue<Boolean> {
         protected final boolean defaultValue;
 
@@ -0,0 +1,64 @@
+package eu.codedsakura.mods;
+
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Lock-free multi-producer single-consumer task queue, drained by the owning thread once per tick.
+public class EventLoop implements Executor {
+    private final AtomicReference<Node> tail;
+    private final Logger logger;
+    private Node head;
+
+    public EventLoop(Logger logger) {
+        this.logger = logger;
+        this.head = new Node(null);
+        this.tail = new AtomicReference<>(head);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Node node = new Node(task);
+        tail.getAndSet(node).next = node;
+    }
+
+    public int drain() {
+        int count = 0;
+        Node next;
+        while ((next = head.next) != null) {
+            Runnable task = next.task;
+            next.task = null;
+            head = next;
+            count++;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.error("Queued task failed!", e);
+            }
+        }
+        return count;
+    }
+
+    // Drops queued tasks without running them
+    public void clear() {
+        Node next;
+        while ((next = head.next) != null) {
+            next.task = null;
+            head = next;
+        }
+    }
+
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static class Node {
+        private Runnable task;
+        private volatile Node next;
+
+        private Node(Runnable task) {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package eu.codedsakura.mods;
+
+// Maps the server's average tick time to a degradation level. Levels rise immediately,
+// but only step back down after MSPT has stayed comfortably below the threshold for a while.
+public class LoadMonitor {
+    public static final int NORMAL = 0, REDUCED = 1, MINIMAL = 2;
+    private static final String[] NAMES = {"normal", "reduced", "minimal"};
+    private static final int RECOVERY_TICKS = 100;
+    private static final float RECOVERY_MARGIN = 0.9f;
+    private static final float MINIMAL_FACTOR = 1.5f;
+
+    private volatile int level = NORMAL;
+    private int calmTicks;
+
+    public static String name(int level) {
+        return NAMES[level];
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // A threshold of 0 disables degradation. Returns true if the level changed.
+    public boolean sample(float mspt, int threshold) {
+        if (threshold <= 0) return set(NORMAL);
+        int target = levelFor(mspt, threshold);
+        if (target > level) {
+            calmTicks = 0;
+            return set(target);
+        }
+        if (levelFor(mspt, threshold * RECOVERY_MARGIN) >= level) {
+            calmTicks = 0;
+        } else if (++calmTicks >= RECOVERY_TICKS) {
+            calmTicks = 0;
+            return set(level - 1);
+        }
+        return false;
+    }
+
+    private boolean set(int level) {
+        if (this.level == level) return false;
+        this.level = level;
+        return true;
+    }
+
+    private static int levelFor(float mspt, float threshold) {
+        return mspt > threshold * MINIMAL_FACTOR ? MINIMAL : mspt > threshold ? REDUCED : NORMAL;
+    }
+}
@@ -0,0 +1,68 @@
+package eu.codedsakura.mods;
+
+import java.util.Arrays;
+
+// Per-player token buckets plus one shared bucket, players get a slot for their session so state lives in flat arrays.
+// A rate of 0 disables the respective bucket.
+public class RateLimiter {
+    private int[] freeSlots = new int[16];
+    private int freeCount, slotCount;
+    private double[] tokens = new double[16];
+    private long[] lastRefill = new long[16];
+    private boolean[] notified = new boolean[16];
+
+    private double globalTokens = -1;
+    private long globalLastRefill;
+
+    public int acquireSlot(long now, int burst) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            slot = slotCount++;
+            if (slot == tokens.length) grow();
+        }
+        tokens[slot] = burst;
+        lastRefill[slot] = now;
+        notified[slot] = false;
+        return slot;
+    }
+
+    public void releaseSlot(int slot) {
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    // now is in nanoseconds, rates are tokens per second
+    public boolean tryAcquire(int slot, long now, int burst, double rate, int globalBurst, double globalRate) {
+        boolean limited = rate > 0, globalLimited = globalRate > 0;
+        if (limited) tokens[slot] = refill(tokens[slot], now - lastRefill[slot], burst, rate);
+        lastRefill[slot] = now;
+        if (globalLimited) globalTokens = refill(globalTokens < 0 ? globalBurst : globalTokens, now - globalLastRefill, globalBurst, globalRate);
+        globalLastRefill = now;
+
+        if ((limited && tokens[slot] < 1) || (globalLimited && globalTokens < 1)) return false;
+        if (limited) tokens[slot]--;
+        if (globalLimited) globalTokens--;
+        notified[slot] = false;
+        return true;
+    }
+
+    // true only for the first rejection since the player was last let through
+    public boolean shouldNotify(int slot) {
+        if (notified[slot]) return false;
+        notified[slot] = true;
+        return true;
+    }
+
+    private static double refill(double current, long elapsedNanos, int burst, double rate) {
+        return Math.min(burst, current + elapsedNanos * rate / 1e9);
+    }
+
+    private void grow() {
+        int capacity = tokens.length * 2;
+        tokens = Arrays.copyOf(tokens, capacity);
+        lastRefill = Arrays.copyOf(lastRefill, capacity);
+        notified = Arrays.copyOf(notified, capacity);
+    }
+}
@@ -1,93 +1,393 @@
 package eu.codedsakura.mods;
 
 import net.minecraft.entity.boss.BossBar;
-import net.minecraft.entity.boss.CommandBossBar;
+import net.minecraft.entity.boss.ServerBossBar;
 import net.minecraft.network.packet.s2c.play.ClearTitleS2CPacket;
 import net.minecraft.network.packet.s2c.play.SubtitleS2CPacket;
 import net.minecraft.network.packet.s2c.play.TitleFadeS2CPacket;
 import net.minecraft.network.packet.s2c.play.TitleS2CPacket;
-import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
-import net.minecraft.util.Identifier;
-import net.minecraft.util.math.Vec3d;
+import net.minecraft.util.math.ChunkPos;
+import org.apache.logging.log4j.LogManager;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 public class TeleportUtils {
+    public static final int CANCEL_ON_DAMAGE = 1;
+    public static final int CANCEL_ON_COMBAT = 2;
+
+    private static final int UPDATE_INTERVAL = 5;
+    private static final int CLEAR_TITLE_DELAY = 10;
+    private static final int TICKET_RADIUS = 1;
+    // Chebyshev distance in chunks the destination may drift before the ticket follows it.
+    private static final int RETARGET_DISTANCE = 2;
+    // The title is sent once and kept up until it is cleared, so only the countdown itself is resent.
+    private static final int TITLE_STAY = 20 * 60 * 60;
+    private static final TitleFadeS2CPacket TITLE_FADE = new TitleFadeS2CPacket(0, TITLE_STAY, 5);
+    private static final TitleS2CPacket TITLE = new TitleS2CPacket(Text.literal("Teleporting!").formatted(Formatting.LIGHT_PURPLE, Formatting.BOLD));
+    private static final SubtitleS2CPacket SUBTITLE = new SubtitleS2CPacket(Text.literal("Please stand still...").formatted(Formatting.RED, Formatting.ITALIC));
+    private static final ClearTitleS2CPacket CLEAR_TITLE = new ClearTitleS2CPacket(true);
+    private static final Text TELEPORTING = Text.literal("Teleporting!").formatted(Formatting.LIGHT_PURPLE);
+    private static final Text CANCELLED = Text.literal("Teleport cancelled!").formatted(Formatting.RED);
+    private static Text[] countdownTexts = new Text[0];
+    private static final ChunkTicketType<ChunkPos> WARM_UP_TICKET = ChunkTicketType.create("fabrictpa_warmup", Comparator.comparingLong(ChunkPos::toLong));
+
+    private static final TimingWheel delayed = new TimingWheel(LogManager.getLogger("TeleportUtils"));
+
+    private static int size = 0;
+    private static ServerPlayerEntity[] players = new ServerPlayerEntity[16];
+    // Boss bars are never registered in the global BossBarManager, so they aren't saved, listed or leaked
+    private static final int BOSS_BAR_POOL_SIZE = 64;
+    private static final ArrayDeque<ServerBossBar> bossBarPool = new ArrayDeque<>();
+
+    private static ServerBossBar[] bossBars = new ServerBossBar[16];
+    private static ServerPlayerEntity[] destinations = new ServerPlayerEntity[16];
+    private static ServerWorld[] ticketWorlds = new ServerWorld[16];
+    private static ChunkPos[] ticketChunks = new ChunkPos[16];
+    private static Consumer<Ticket>[] callbacks = newCallbacks(16);
+    private static double[] lastX = new double[16], lastY = new double[16], lastZ = new double[16], toleranceSq = new double[16];
+    private static float[] lastHealth = new float[16];
+    private static int[] flags = new int[16], lastAttack = new int[16], lastAttacked = new int[16];
+    private static int[] remaining = new int[16], total = new int[16], age = new int[16], resets = new int[16], shown = new int[16];
+    private static boolean[] titled = new boolean[16];
+    // Each player's warm-ups form a linked list through these, so cancel(UUID) doesn't scan
+    private static final HashMap<UUID, Integer> firstByPlayer = new HashMap<>();
+    private static int[] nextByPlayer = new int[16], prevByPlayer = new int[16];
+    private static Listener listener = (ticks, movementResets) -> {};
+    // Above LoadMonitor.NORMAL, titles are skipped and the countdown is updated less often
+    private static int loadLevel = LoadMonitor.NORMAL;
+
+    public static void setListener(Listener listener) {
+        TeleportUtils.listener = listener;
+    }
+
+    public static void setLoadLevel(int level) {
+        loadLevel = level;
+    }
+
+    // Drops every warm-up of a player, e.g. when they disconnect
+    public static void cancel(UUID player) {
+        Integer first;
+        while ((first = firstByPlayer.get(player)) != null) finish(first);
+    }
+
+    // Drops every warm-up, e.g. when the server stops
+    public static void clear() {
+        while (size > 0) finish(size - 1);
+        delayed.clear();
+    }
+
+    public static int getPendingCount() {
+        return size;
+    }
+
     public static void genericTeleport(boolean bossBar, double standStillTime, ServerPlayerEntity who, Runnable onCounterDone) {
-        MinecraftServer server = who.server;
-        final double[] counter = {standStillTime};
-        final Vec3d[] lastPos = {who.getPos()};
-        CommandBossBar standStillBar = null;
-        if (bossBar) {
-//            Collection<CommandBossBar> bossBars = server.getBossBarManager().getAll();
-//            bossBars.forEach(commandBossBar -> server.getBossBarManager().remove(commandBossBar));
+        genericTeleport(bossBar, standStillTime, who, null, onCounterDone);
+    }
+
+    // The destination's chunks are kept ticketed during the countdown, so they load asynchronously instead of in the teleport tick.
+    public static void genericTeleport(boolean bossBar, double standStillTime, ServerPlayerEntity who, @Nullable ServerPlayerEntity destination, Runnable onCounterDone) {
+        genericTeleport(bossBar, standStillTime, 0, 0, who, destination, onCounterDone);
+    }
 
-            standStillBar = server.getBossBarManager().add(new Identifier("standstill-" + who.getUuidAsString()), Text.empty());
+    // Moving further than movementTolerance blocks from where the player last stood restarts the countdown,
+    // cancelFlags (CANCEL_ON_DAMAGE, CANCEL_ON_COMBAT) abort the teleport entirely.
+    public static void genericTeleport(boolean bossBar, double standStillTime, double movementTolerance, int cancelFlags,
+                                       ServerPlayerEntity who, @Nullable ServerPlayerEntity destination, Runnable onCounterDone) {
+        genericTeleport(bossBar, standStillTime, movementTolerance, cancelFlags, who, destination, ticket -> {
+            onCounterDone.run();
+            if (ticket != null) ticket.release();
+        });
+    }
+
+    // The destination's ticket is handed to onCounterDone (null without a destination), which has to release it once
+    // the teleport has actually happened, so teleports that are deferred still land in loaded chunks.
+    public static void genericTeleport(boolean bossBar, double standStillTime, double movementTolerance, int cancelFlags,
+                                       ServerPlayerEntity who, @Nullable ServerPlayerEntity destination, Consumer<Ticket> onCounterDone) {
+        ServerBossBar standStillBar = null;
+        if (bossBar) {
+            standStillBar = bossBarPool.poll();
+            if (standStillBar == null) standStillBar = new ServerBossBar(Text.empty(), BossBar.Color.PINK, BossBar.Style.PROGRESS);
+            standStillBar.setPercent(1);
             standStillBar.addPlayer(who);
-            standStillBar.setColor(BossBar.Color.PINK);
-
-//            bossBars.forEach(commandBossBar -> {
-//                CommandBossBar newBossBar = server.getBossBarManager().add(commandBossBar.getId(), commandBossBar.getName());
-//                newBossBar.addPlayers(commandBossBar.getPlayers());
-//                newBossBar.setMaxValue(commandBossBar.getMaxValue());
-//                newBossBar.setValue(commandBossBar.getValue());
-//                newBossBar.setVisible(commandBossBar.isVisible());
-//                newBossBar.setColor(commandBossBar.getColor());
-//            });
         }
-        who.networkHandler.sendPacket(new TitleFadeS2CPacket(0, 10, 5));
-        CommandBossBar finalStandStillBar = standStillBar;
-
-        final ServerPlayerEntity[] whoFinal = {who};
-        Timer timer = new Timer();
-        timer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (counter[0] == 0) {
-                    if (bossBar) {
-                        finalStandStillBar.removePlayer(whoFinal[0]);
-                        server.getBossBarManager().remove(finalStandStillBar);
-                    } else {
-                        whoFinal[0].sendMessage(Text.literal("Teleporting!").formatted(Formatting.LIGHT_PURPLE), true);
-                    }
-                    new Timer().schedule(new TimerTask() {
-                        @Override
-                        public void run() {
-                            whoFinal[0].networkHandler.sendPacket(new ClearTitleS2CPacket(true));
-                        }
-                    }, 500);
-                    timer.cancel();
-                    server.submit(onCounterDone);
-                    return;
-                }
+        if (size == players.length) grow();
+        int i = size++;
+        titled[i] = loadLevel == LoadMonitor.NORMAL;
+        if (titled[i]) {
+            who.networkHandler.sendPacket(TITLE_FADE);
+            who.networkHandler.sendPacket(SUBTITLE);
+            who.networkHandler.sendPacket(TITLE);
+        }
+        players[i] = who;
+        link(i, who.getUuid());
+        bossBars[i] = standStillBar;
+        destinations[i] = destination;
+        callbacks[i] = onCounterDone;
+        lastX[i] = who.getX();
+        lastY[i] = who.getY();
+        lastZ[i] = who.getZ();
+        toleranceSq[i] = movementTolerance * movementTolerance;
+        flags[i] = cancelFlags;
+        markCombatState(i, who);
+        total[i] = remaining[i] = (int) Math.round(standStillTime * 20);
+        age[i] = 0;
+        resets[i] = 0;
+        shown[i] = -1;
+        if (destination != null) addTicket(i, destination);
+    }
+
+    public static void tick() {
+        delayed.tick();
 
-                Vec3d currPos = whoFinal[0].getPos();
-                if (whoFinal[0].isRemoved()) {
-                    whoFinal[0] = server.getPlayerManager().getPlayer(whoFinal[0].getUuid());
-                    assert whoFinal[0] != null;
-                } else if (lastPos[0].equals(currPos)) {
-                    counter[0] -= .25;
-                } else {
-                    lastPos[0] = currPos;
-                    counter[0] = standStillTime;
+        for (int i = size - 1; i >= 0; i--) {
+            ServerPlayerEntity who = players[i];
+            if (who.isRemoved()) {
+                who = who.server.getPlayerManager().getPlayer(who.getUuid());
+                if (who == null) {
+                    finish(i);
+                    continue;
                 }
+                if (bossBars[i] != null) {
+                    bossBars[i].removePlayer(players[i]);
+                    bossBars[i].addPlayer(who);
+                }
+                players[i] = who;
+                markCombatState(i, who);
+            }
 
-                if (bossBar) {
-                    finalStandStillBar.setPercent((float) (counter[0] / standStillTime));
-                } else {
-                    whoFinal[0].sendMessage(Text.literal("Stand still for ").formatted(Formatting.LIGHT_PURPLE)
-                            .append(Text.literal(Integer.toString((int) Math.floor(counter[0] + 1))).formatted(Formatting.GOLD))
-                            .append(Text.literal(" more seconds!").formatted(Formatting.LIGHT_PURPLE)), true);
+            if (flags[i] != 0 && shouldCancel(i, who)) {
+                who.sendMessage(CANCELLED, true);
+                if (titled[i]) who.networkHandler.sendPacket(CLEAR_TITLE);
+                finish(i);
+                continue;
+            }
+
+            if (remaining[i] <= 0) {
+                if (bossBars[i] == null) {
+                    who.sendMessage(TELEPORTING, true);
+                }
+                if (titled[i]) {
+                    ServerPlayerEntity whoFinal = who;
+                    delayed.schedule(CLEAR_TITLE_DELAY, () -> whoFinal.networkHandler.sendPacket(CLEAR_TITLE));
                 }
-                whoFinal[0].networkHandler.sendPacket(new SubtitleS2CPacket(Text.literal("Please stand still...")
-                        .formatted(Formatting.RED, Formatting.ITALIC)));
-                whoFinal[0].networkHandler.sendPacket(new TitleS2CPacket(Text.literal("Teleporting!")
-                        .formatted(Formatting.LIGHT_PURPLE, Formatting.BOLD)));
+                listener.onWarmUpDone(age[i], resets[i]);
+                // The callback now owns the ticket and keeps the destination loaded until the teleport itself has happened
+                Ticket ticket = ticketWorlds[i] == null ? null : new Ticket(ticketWorlds[i], ticketChunks[i]);
+                ticketWorlds[i] = null;
+                finish(i).accept(ticket);
+                continue;
+            }
+
+            // a destination that left won't be there to teleport to
+            if (destinations[i] != null && !updateTicket(i)) {
+                who.sendMessage(CANCELLED, true);
+                if (titled[i]) who.networkHandler.sendPacket(CLEAR_TITLE);
+                finish(i);
+                continue;
+            }
+
+            double x = who.getX(), y = who.getY(), z = who.getZ();
+            double dx = x - lastX[i], dy = y - lastY[i], dz = z - lastZ[i];
+            if (dx * dx + dy * dy + dz * dz <= toleranceSq[i]) {
+                remaining[i]--;
+            } else {
+                lastX[i] = x;
+                lastY[i] = y;
+                lastZ[i] = z;
+                remaining[i] = total[i];
+                resets[i]++;
+            }
+
+            if (age[i]++ % (UPDATE_INTERVAL << loadLevel) != 0) continue;
+            if (bossBars[i] != null) {
+                if (shown[i] == remaining[i]) continue;
+                shown[i] = remaining[i];
+                bossBars[i].setPercent(total[i] == 0 ? 0 : (float) remaining[i] / total[i]);
+            } else {
+                int seconds = remaining[i] / 20 + 1;
+                if (shown[i] == seconds) continue;
+                shown[i] = seconds;
+                who.sendMessage(countdownText(seconds), true);
             }
-        }, 0, 250);
+        }
+    }
+
+    private static void markCombatState(int i, ServerPlayerEntity who) {
+        lastHealth[i] = who.getHealth() + who.getAbsorptionAmount();
+        lastAttack[i] = who.getLastAttackTime();
+        lastAttacked[i] = who.getLastAttackedTime();
+    }
+
+    private static boolean shouldCancel(int i, ServerPlayerEntity who) {
+        float health = who.getHealth() + who.getAbsorptionAmount();
+        boolean damaged = health < lastHealth[i];
+        lastHealth[i] = health;
+        if ((flags[i] & CANCEL_ON_DAMAGE) != 0 && damaged) return true;
+        return (flags[i] & CANCEL_ON_COMBAT) != 0
+                && (who.getLastAttackTime() != lastAttack[i] || who.getLastAttackedTime() != lastAttacked[i]);
+    }
+
+    private static Text countdownText(int seconds) {
+        if (seconds >= countdownTexts.length) countdownTexts = Arrays.copyOf(countdownTexts, seconds + 1);
+        Text text = countdownTexts[seconds];
+        if (text == null) {
+            text = countdownTexts[seconds] = Text.literal("Stand still for ").formatted(Formatting.LIGHT_PURPLE)
+                    .append(Text.literal(Integer.toString(seconds)).formatted(Formatting.GOLD))
+                    .append(Text.literal(" more seconds!").formatted(Formatting.LIGHT_PURPLE));
+        }
+        return text;
+    }
+
+    private static void addTicket(int i, ServerPlayerEntity destination) {
+        ServerWorld world = destination.getWorld();
+        ChunkPos chunk = new ChunkPos(destination.getBlockX() >> 4, destination.getBlockZ() >> 4);
+        world.getChunkManager().addTicket(WARM_UP_TICKET, chunk, TICKET_RADIUS, chunk);
+        ticketWorlds[i] = world;
+        ticketChunks[i] = chunk;
+    }
+
+    private static void removeTicket(int i) {
+        if (ticketWorlds[i] == null) return;
+        releaseTicket(ticketWorlds[i], ticketChunks[i]);
+        ticketWorlds[i] = null;
+        ticketChunks[i] = null;
+    }
+
+    private static void releaseTicket(ServerWorld world, ChunkPos chunk) {
+        world.getChunkManager().removeTicket(WARM_UP_TICKET, chunk, TICKET_RADIUS, chunk);
+    }
+
+    // Returns false if the destination went offline
+    private static boolean updateTicket(int i) {
+        ServerPlayerEntity destination = destinations[i];
+        if (destination.isRemoved()) {
+            destination = destination.server.getPlayerManager().getPlayer(destination.getUuid());
+            if (destination == null) return false;
+            destinations[i] = destination;
+        }
+        ChunkPos chunk = ticketChunks[i];
+        if (destination.getWorld() == ticketWorlds[i]
+                && Math.abs((destination.getBlockX() >> 4) - chunk.x) <= RETARGET_DISTANCE
+                && Math.abs((destination.getBlockZ() >> 4) - chunk.z) <= RETARGET_DISTANCE) return true;
+        removeTicket(i);
+        addTicket(i, destination);
+        return true;
+    }
+
+    private static void link(int i, UUID player) {
+        Integer first = firstByPlayer.put(player, i);
+        prevByPlayer[i] = -1;
+        nextByPlayer[i] = first == null ? -1 : first;
+        if (first != null) prevByPlayer[first] = i;
+    }
+
+    private static void unlink(int i, UUID player) {
+        int prev = prevByPlayer[i], next = nextByPlayer[i];
+        if (prev >= 0) nextByPlayer[prev] = next;
+        else if (next >= 0) firstByPlayer.put(player, next);
+        else firstByPlayer.remove(player);
+        if (next >= 0) prevByPlayer[next] = prev;
+    }
+
+    // Points the neighbours of a warm-up that was moved into slot i at its new slot
+    private static void relink(int i, UUID player) {
+        if (prevByPlayer[i] >= 0) nextByPlayer[prevByPlayer[i]] = i;
+        else firstByPlayer.put(player, i);
+        if (nextByPlayer[i] >= 0) prevByPlayer[nextByPlayer[i]] = i;
+    }
+
+    private static Consumer<Ticket> finish(int i) {
+        Consumer<Ticket> callback = callbacks[i];
+        ServerBossBar bar = bossBars[i];
+        if (bar != null) {
+            bar.clearPlayers();
+            if (bossBarPool.size() < BOSS_BAR_POOL_SIZE) bossBarPool.push(bar);
+        }
+        removeTicket(i);
+        unlink(i, players[i].getUuid());
+
+        int last = --size;
+        players[i] = players[last];
+        bossBars[i] = bossBars[last];
+        destinations[i] = destinations[last];
+        ticketWorlds[i] = ticketWorlds[last];
+        ticketChunks[i] = ticketChunks[last];
+        callbacks[i] = callbacks[last];
+        lastX[i] = lastX[last];
+        lastY[i] = lastY[last];
+        lastZ[i] = lastZ[last];
+        toleranceSq[i] = toleranceSq[last];
+        lastHealth[i] = lastHealth[last];
+        flags[i] = flags[last];
+        lastAttack[i] = lastAttack[last];
+        lastAttacked[i] = lastAttacked[last];
+        remaining[i] = remaining[last];
+        total[i] = total[last];
+        age[i] = age[last];
+        resets[i] = resets[last];
+        shown[i] = shown[last];
+        titled[i] = titled[last];
+        nextByPlayer[i] = nextByPlayer[last];
+        prevByPlayer[i] = prevByPlayer[last];
+        if (i != last) relink(i, players[i].getUuid());
+        players[last] = null;
+        bossBars[last] = null;
+        destinations[last] = null;
+        ticketWorlds[last] = null;
+        ticketChunks[last] = null;
+        callbacks[last] = null;
+        return callback;
+    }
+
+    private static void grow() {
+        int capacity = players.length * 2;
+        players = Arrays.copyOf(players, capacity);
+        bossBars = Arrays.copyOf(bossBars, capacity);
+        destinations = Arrays.copyOf(destinations, capacity);
+        ticketWorlds = Arrays.copyOf(ticketWorlds, capacity);
+        ticketChunks = Arrays.copyOf(ticketChunks, capacity);
+        callbacks = Arrays.copyOf(callbacks, capacity);
+        lastX = Arrays.copyOf(lastX, capacity);
+        lastY = Arrays.copyOf(lastY, capacity);
+        lastZ = Arrays.copyOf(lastZ, capacity);
+        toleranceSq = Arrays.copyOf(toleranceSq, capacity);
+        lastHealth = Arrays.copyOf(lastHealth, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        lastAttack = Arrays.copyOf(lastAttack, capacity);
+        lastAttacked = Arrays.copyOf(lastAttacked, capacity);
+        remaining = Arrays.copyOf(remaining, capacity);
+        total = Arrays.copyOf(total, capacity);
+        age = Arrays.copyOf(age, capacity);
+        resets = Arrays.copyOf(resets, capacity);
+        shown = Arrays.copyOf(shown, capacity);
+        titled = Arrays.copyOf(titled, capacity);
+        nextByPlayer = Arrays.copyOf(nextByPlayer, capacity);
+        prevByPlayer = Arrays.copyOf(prevByPlayer, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Consumer<Ticket>[] newCallbacks(int capacity) {
+        return new Consumer[capacity];
+    }
+
+    public record Ticket(ServerWorld world, ChunkPos chunk) {
+        public void release() {
+            releaseTicket(world, chunk);
+        }
+    }
+
+    public interface Listener {
+        void onWarmUpDone(int ticks, int movementResets);
     }
 }
@@ -0,0 +1,152 @@
+package eu.codedsakura.mods;
+
+import net.minecraft.text.*;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Chat message compiled once into styled segments, formatting only fills in the {slot} placeholders.
+// Markup: &<code> formatting codes, {slot} placeholders, <run:/command {slot}>label</run> clickable commands.
+public class TextTemplate {
+    private static final String RUN_OPEN = "<run:";
+    private static final String RUN_CLOSE = "</run>";
+
+    private final String source;
+    private final Segment[] segments;
+    private final int slotCount;
+
+    private TextTemplate(String source, Segment[] segments, int slotCount) {
+        this.source = source;
+        this.segments = segments;
+        this.slotCount = slotCount;
+    }
+
+    public static TextTemplate compile(String source, String... slots) {
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        Style style = Style.EMPTY;
+        Object[] command = null;
+
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '&' && i + 1 < source.length()) {
+                Formatting formatting = Formatting.byCode(source.charAt(i + 1));
+                if (formatting != null) {
+                    flush(segments, literal, style, command);
+                    if (formatting == Formatting.RESET) style = Style.EMPTY;
+                    else if (formatting.isColor()) style = Style.EMPTY.withColor(formatting);
+                    else style = style.withFormatting(formatting);
+                    i += 2;
+                    continue;
+                }
+            } else if (c == '{') {
+                int end = source.indexOf('}', i);
+                if (end < 0) throw new IllegalArgumentException("Unclosed placeholder in \"" + source + "\"");
+                flush(segments, literal, style, command);
+                segments.add(new Segment(style, null, slotIndex(source, source.substring(i + 1, end), slots), command));
+                i = end + 1;
+                continue;
+            } else if (source.startsWith(RUN_OPEN, i)) {
+                int end = source.indexOf('>', i);
+                if (end < 0) throw new IllegalArgumentException("Unclosed command tag in \"" + source + "\"");
+                if (command != null) throw new IllegalArgumentException("Nested command tags in \"" + source + "\"");
+                flush(segments, literal, style, null);
+                command = compileCommand(source, source.substring(i + RUN_OPEN.length(), end), slots);
+                i = end + 1;
+                continue;
+            } else if (source.startsWith(RUN_CLOSE, i)) {
+                flush(segments, literal, style, command);
+                command = null;
+                i += RUN_CLOSE.length();
+                continue;
+            }
+            literal.append(c);
+            i++;
+        }
+        if (command != null) throw new IllegalArgumentException("Unclosed command tag in \"" + source + "\"");
+        flush(segments, literal, style, null);
+        return new TextTemplate(source, segments.toArray(Segment[]::new), slots.length);
+    }
+
+    public MutableText format(String... values) {
+        if (values.length != slotCount) {
+            throw new IllegalArgumentException("Expected " + slotCount + " values, got " + values.length + " for \"" + source + "\"");
+        }
+        MutableText out = Text.empty();
+        for (Segment segment : segments) {
+            if (segment.constant != null) {
+                out.append(segment.constant);
+                continue;
+            }
+            Style style = segment.style;
+            if (segment.command != null) style = withCommand(style, buildCommand(segment.command, values));
+            out.append(Text.literal(segment.slot < 0 ? segment.text : values[segment.slot]).setStyle(style));
+        }
+        return out;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    private static void flush(List<Segment> segments, StringBuilder literal, Style style, Object[] command) {
+        if (literal.isEmpty()) return;
+        segments.add(new Segment(style, literal.toString(), -1, command));
+        literal.setLength(0);
+    }
+
+    private static int slotIndex(String source, String name, String[] slots) {
+        int index = Arrays.asList(slots).indexOf(name);
+        if (index < 0) throw new IllegalArgumentException("Unknown placeholder {" + name + "} in \"" + source + "\"");
+        return index;
+    }
+
+    private static Object[] compileCommand(String source, String command, String[] slots) {
+        List<Object> parts = new ArrayList<>();
+        int i = 0;
+        while (i < command.length()) {
+            int start = command.indexOf('{', i);
+            if (start < 0) {
+                parts.add(command.substring(i));
+                break;
+            }
+            int end = command.indexOf('}', start);
+            if (end < 0) throw new IllegalArgumentException("Unclosed placeholder in \"" + source + "\"");
+            if (start > i) parts.add(command.substring(i, start));
+            parts.add(slotIndex(source, command.substring(start + 1, end), slots));
+            i = end + 1;
+        }
+        return parts.toArray();
+    }
+
+    private static String buildCommand(Object[] command, String[] values) {
+        StringBuilder out = new StringBuilder();
+        for (Object part : command) out.append(part instanceof Integer slot ? values[slot] : (String) part);
+        return out.toString();
+    }
+
+    private static Style withCommand(Style style, String command) {
+        return style.withClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, command))
+                .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, Text.literal(command)));
+    }
+
+    private static class Segment {
+        final Style style;
+        final String text;
+        final int slot;
+        final Object[] command;
+        final Text constant;
+
+        Segment(Style style, String text, int slot, Object[] command) {
+            boolean staticCommand = command != null && Arrays.stream(command).allMatch(part -> part instanceof String);
+            this.style = staticCommand ? withCommand(style, buildCommand(command, new String[0])) : style;
+            this.text = text;
+            this.slot = slot;
+            this.command = staticCommand ? null : command;
+            this.constant = slot < 0 && this.command == null ? Text.literal(text).setStyle(this.style) : null;
+        }
+    }
+}
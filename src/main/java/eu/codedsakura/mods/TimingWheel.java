@@ -0,0 +1,136 @@
+package eu.codedsakura.mods;
+
+import org.apache.logging.log4j.Logger;
+
+// Hierarchical timing wheel, advanced once per server tick. Not thread-safe, owned by the server thread.
+public class TimingWheel {
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    private final Entry[][] wheels = new Entry[LEVELS][WHEEL_SIZE];
+    private final Logger logger;
+    private long currentTick = 0;
+    private int size = 0;
+
+    public TimingWheel(Logger logger) {
+        this.logger = logger;
+        for (Entry[] wheel : wheels) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                Entry head = new Entry(0, null);
+                head.prev = head.next = head;
+                wheel[i] = head;
+            }
+        }
+    }
+
+    public Entry schedule(long delayTicks, Runnable task) {
+        Entry entry = new Entry(currentTick + Math.max(1, delayTicks), task);
+        insert(entry);
+        size++;
+        return entry;
+    }
+
+    public void tick() {
+        currentTick++;
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (level * WHEEL_BITS)) - 1)) == 0) {
+                cascade(level, (int) (currentTick >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+            }
+        }
+
+        Entry head = wheels[0][(int) currentTick & WHEEL_MASK];
+        while (head.next != head) {
+            Entry entry = head.next;
+            entry.unlink();
+            size--;
+            try {
+                entry.task.run();
+            } catch (RuntimeException e) {
+                logger.error("Scheduled task failed!", e);
+            }
+        }
+    }
+
+    // Cancels everything that's scheduled
+    public void clear() {
+        for (Entry[] wheel : wheels) {
+            for (Entry head : wheel) {
+                while (head.next != head) head.next.unlink();
+            }
+        }
+        size = 0;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Entry head = wheels[level][slot];
+        Entry entry = head.next;
+        head.prev = head.next = head;
+        while (entry != head) {
+            Entry next = entry.next;
+            insert(entry);
+            entry = next;
+        }
+    }
+
+    private void insert(Entry entry) {
+        for (int level = 0; level < LEVELS; level++) {
+            long slot = entry.deadline >>> (level * WHEEL_BITS);
+            if (slot - (currentTick >>> (level * WHEEL_BITS)) < WHEEL_SIZE) {
+                link(wheels[level][(int) slot & WHEEL_MASK], entry);
+                return;
+            }
+        }
+        // further out than the whole wheel covers, park it in the last top-level slot and let it cascade
+        int top = LEVELS - 1;
+        link(wheels[top][(int) ((currentTick >>> (top * WHEEL_BITS)) + WHEEL_MASK) & WHEEL_MASK], entry);
+    }
+
+    private static void link(Entry head, Entry entry) {
+        entry.prev = head.prev;
+        entry.next = head;
+        head.prev.next = entry;
+        head.prev = entry;
+    }
+
+    public class Entry {
+        private final long deadline;
+        private final Runnable task;
+        private Entry prev, next;
+
+        private Entry(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        private void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = next = null;
+        }
+
+        public boolean isPending() {
+            return next != null;
+        }
+
+        public long getRemainingTicks() {
+            return Math.max(0, deadline - currentTick);
+        }
+
+        public boolean cancel() {
+            if (next == null) return false;
+            unlink();
+            size--;
+            return true;
+        }
+    }
+}
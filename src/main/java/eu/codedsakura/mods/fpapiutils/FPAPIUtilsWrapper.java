@@ -2,31 +2,40 @@ package eu.codedsakura.mods.fpapiutils;
 
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 public class FPAPIUtilsWrapper {
-    private static boolean fpapiLoaded = false;
-    private static boolean fpapiLoadedChecked = false;
+    private static final boolean fpapiLoaded = FabricLoader.getInstance().isModLoaded("fabric-permissions-api-v0");
+
+    // Results are cached per player, until they disconnect, their op level changes or the TTL runs out.
+    // The TTL bounds how long changes made directly in the permissions plugin take to show up.
+    private static final long CACHE_TTL_MS = 5000;
+    private static final byte UNKNOWN = 0, DENIED = 1, ALLOWED = 2;
+    private static final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+    private static final Map<UUID, CachedPermissions> cache = new ConcurrentHashMap<>();
 
     static boolean isFPAPILoaded() {
-        if (!fpapiLoadedChecked) {
-            fpapiLoadedChecked = true;
-            fpapiLoaded = FabricLoader.getInstance().isModLoaded("fabric-permissions-api-v0");
-        }
         return fpapiLoaded;
     }
 
     public static Predicate<ServerCommandSource> require(String permission, boolean defaultValue) {
         if (isFPAPILoaded()) {
-            return FPAPIUtils.require(permission, defaultValue);
+            return cached(permission + "#" + defaultValue, FPAPIUtils.require(permission, defaultValue));
         }
         return _ignored -> defaultValue;
     }
 
     public static Predicate<ServerCommandSource> require(String permission, int level) {
         if (isFPAPILoaded()) {
-            return FPAPIUtils.require(permission, level);
+            return cached(permission + "#" + level, FPAPIUtils.require(permission, level));
         }
         return player -> player.hasPermissionLevel(level);
     }
@@ -37,4 +46,37 @@ public class FPAPIUtilsWrapper {
         }
         return fallback;
     }
+
+    public static void invalidate(UUID player) {
+        cache.remove(player);
+    }
+
+    private static Predicate<ServerCommandSource> cached(String key, Predicate<ServerCommandSource> check) {
+        int slot = slots.computeIfAbsent(key, k -> nextSlot.getAndIncrement());
+        return source -> {
+            if (!(source.getEntity() instanceof ServerPlayerEntity player)) return check.test(source);
+            int level = player.server.getPermissionLevel(player.getGameProfile());
+            // sources running with a different level than the player's own (e.g. /execute as) bypass the cache
+            if (!source.hasPermissionLevel(level) || (level < 4 && source.hasPermissionLevel(level + 1))) return check.test(source);
+            return cache.computeIfAbsent(player.getUuid(), k -> new CachedPermissions()).test(slot, level, source, check);
+        };
+    }
+
+    private static class CachedPermissions {
+        private byte[] results = new byte[4];
+        private int opLevel = -1;
+        private long expiresAt;
+
+        synchronized boolean test(int slot, int level, ServerCommandSource source, Predicate<ServerCommandSource> check) {
+            long now = System.currentTimeMillis();
+            if (level != opLevel || now >= expiresAt) {
+                Arrays.fill(results, UNKNOWN);
+                opLevel = level;
+                expiresAt = now + CACHE_TTL_MS;
+            }
+            if (slot >= results.length) results = Arrays.copyOf(results, Math.max(slot + 1, results.length * 2));
+            if (results[slot] == UNKNOWN) results[slot] = check.test(source) ? ALLOWED : DENIED;
+            return results[slot] == ALLOWED;
+        }
+    }
 }
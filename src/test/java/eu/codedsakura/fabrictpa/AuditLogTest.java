@@ -0,0 +1,94 @@
+package eu.codedsakura.fabrictpa;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+    private final FabricTPA.PlayerRef alice = new FabricTPA.PlayerRef(UUID.randomUUID(), "alice");
+    private final FabricTPA.PlayerRef bob = new FabricTPA.PlayerRef(UUID.randomUUID(), "bob \"the\" builder");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesOneLinePerEvent() throws IOException {
+        AuditLog log = open(1 << 20);
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(alice, bob, true, 1200);
+        log.record(AuditLog.REQUEST, tr, null, null);
+        log.record(AuditLog.ACCEPT, tr, null, null);
+        log.close();
+
+        List<String> lines = Files.readAllLines(dir.resolve("fabrictpa-audit.ndjson"));
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"event\":\"request\",\"tpaHere\":true"));
+        assertTrue(lines.get(0).contains("\"uuid\":\"" + alice.uuid() + "\",\"name\":\"alice\""));
+        assertTrue(lines.get(1).contains("\"event\":\"accept\""));
+        assertTrue(lines.get(1).contains("\"name\":\"bob \\\"the\\\" builder\""));
+        // players that aren't on this node have no position
+        assertFalse(lines.get(1).contains("dimension"));
+    }
+
+    @Test
+    void rotatesOncePastTheSizeLimit() throws IOException {
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(alice, bob, false, 1200);
+        AuditLog log = open(1);
+        log.record(AuditLog.REQUEST, tr, null, null);
+        log.close();
+
+        // the size is checked before each batch, so the first batch lands in the active file
+        assertEquals(List.of("fabrictpa-audit.ndjson"), files());
+
+        log = open(1);
+        log.record(AuditLog.DENY, tr, null, null);
+        log.close();
+
+        List<String> files = files();
+        assertEquals(2, files.size());
+        assertTrue(files.get(0).matches("fabrictpa-audit-\\d{4}-\\d{2}-\\d{2}-1\\.ndjson"), files.get(0));
+        assertTrue(Files.readString(dir.resolve(files.get(0))).contains("\"event\":\"request\""));
+        assertTrue(Files.readString(dir.resolve("fabrictpa-audit.ndjson")).contains("\"event\":\"deny\""));
+    }
+
+    @Test
+    void countsDroppedEvents() throws IOException {
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(alice, bob, false, 1200);
+        AuditLog log = open(1 << 30);
+        int total = 10_000;
+        for (int i = 0; i < total; i++) log.record(AuditLog.TIMEOUT, tr, null, null);
+        log.close();
+
+        List<String> lines = Files.readAllLines(dir.resolve("fabrictpa-audit.ndjson"));
+        long dropped = 0, written = 0;
+        for (String line : lines) {
+            if (line.contains("\"event\":\"dropped\"")) {
+                dropped += Long.parseLong(line.substring(line.lastIndexOf(':') + 1, line.length() - 1));
+            } else {
+                written++;
+            }
+        }
+        assertTrue(dropped > 0);
+        assertEquals(total, written + dropped);
+    }
+
+    private AuditLog open(long maxBytes) {
+        AuditLog log = new AuditLog(dir, LogManager.getLogger("AuditLogTest"), maxBytes);
+        log.open();
+        return log;
+    }
+
+    private List<String> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package eu.codedsakura.fabrictpa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CooldownStoreTest {
+    private static final long COOLDOWN = 5;
+
+    private final CooldownStore store = new CooldownStore();
+
+    @Test
+    void reportsRemainingUntilExpiry() {
+        UUID player = UUID.randomUUID();
+        assertEquals(0, store.getRemaining(player, 100, COOLDOWN));
+        store.put(player, 100, COOLDOWN);
+        assertEquals(5, store.getRemaining(player, 100, COOLDOWN));
+        assertEquals(1, store.getRemaining(player, 104, COOLDOWN));
+        assertEquals(1, store.size());
+
+        // an expired entry is evicted when it's looked up
+        assertEquals(0, store.getRemaining(player, 105, COOLDOWN));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void putRefreshesTheStamp() {
+        UUID player = UUID.randomUUID();
+        store.put(player, 100, COOLDOWN);
+        store.put(player, 103, COOLDOWN);
+        assertEquals(1, store.size());
+        assertEquals(5, store.getRemaining(player, 103, COOLDOWN));
+    }
+
+    @Test
+    void deletionKeepsProbeChainsIntact() {
+        // a small table with many colliding entries, removed in random order
+        Random random = new Random(7);
+        Map<UUID, Long> expected = new HashMap<>();
+        UUID[] players = new UUID[6];
+        for (int i = 0; i < players.length; i++) {
+            players[i] = new UUID(random.nextLong(), random.nextLong());
+            store.put(players[i], i, COOLDOWN + players.length);
+            expected.put(players[i], (long) i);
+        }
+        for (int round = 0; round < 1000; round++) {
+            UUID player = players[random.nextInt(players.length)];
+            long now = 10 + round;
+            if (random.nextBoolean()) {
+                store.put(player, now, COOLDOWN);
+                expected.put(player, now);
+            } else {
+                Long stamp = expected.get(player);
+                long remaining = stamp == null || now - stamp >= COOLDOWN ? 0 : COOLDOWN - (now - stamp);
+                assertEquals(remaining, store.getRemaining(player, now, COOLDOWN));
+                if (remaining == 0) expected.remove(player);
+            }
+        }
+    }
+
+    @Test
+    void rehashDropsExpiredEntries() {
+        for (int i = 0; i < 1000; i++) store.put(UUID.randomUUID(), 0, COOLDOWN);
+        assertEquals(1000, store.size());
+
+        // once the first batch has expired, the next growth keeps only the fresh entries
+        int added = 0;
+        while (store.size() == 1000 + added) {
+            store.put(UUID.randomUUID(), COOLDOWN, COOLDOWN);
+            added++;
+        }
+        assertEquals(added, store.size());
+        assertTrue(store.capacity() >= store.size() * 2);
+    }
+
+    @Test
+    void clearEmptiesTheTable() {
+        UUID player = UUID.randomUUID();
+        for (int i = 0; i < 100; i++) store.put(UUID.randomUUID(), 0, COOLDOWN);
+        store.put(player, 0, COOLDOWN);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getRemaining(player, 1, COOLDOWN));
+    }
+}
@@ -0,0 +1,169 @@
+package eu.codedsakura.fabrictpa;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestJournalTest {
+    private static final Logger LOGGER = LogManager.getLogger("RequestJournalTest");
+    private static final int COOLDOWN_SECONDS = 60;
+    private static final int TIMEOUT_TICKS = 1200;
+
+    private final FabricTPA.PlayerRef alice = new FabricTPA.PlayerRef(UUID.randomUUID(), "alice");
+    private final FabricTPA.PlayerRef bob = new FabricTPA.PlayerRef(UUID.randomUUID(), "bob");
+    private final FabricTPA.PlayerRef carol = new FabricTPA.PlayerRef(UUID.randomUUID(), "carol");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRequestsAndCooldowns() {
+        roundTrip(false);
+    }
+
+    @Test
+    void replaysMappedJournal() {
+        roundTrip(true);
+    }
+
+    private void roundTrip(boolean mmap) {
+        RequestJournal journal = journal(mmap);
+        journal.open();
+        FabricTPA.TPARequest kept = new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS);
+        FabricTPA.TPARequest removed = new FabricTPA.TPARequest(bob, carol, true, TIMEOUT_TICKS);
+        FabricTPA.TPARequest bulk = new FabricTPA.TPARequest(carol, alice, true, TIMEOUT_TICKS);
+        bulk.bulk = true;
+        long now = Instant.now().getEpochSecond();
+        journal.requestAdded(kept);
+        journal.requestAdded(removed);
+        journal.requestAdded(bulk);
+        journal.requestRemoved(removed);
+        journal.cooldown(carol.uuid(), now);
+        journal.close();
+
+        RequestJournal.State state = reopen(mmap);
+        assertEquals(2, state.requests.size());
+        RequestJournal.RequestAdded replayed = find(state, alice);
+        assertEquals(bob, replayed.tTo());
+        assertFalse(replayed.tpaHere());
+        assertFalse(replayed.bulk());
+        assertEquals(kept.expiresAt, replayed.expiresAt());
+        RequestJournal.RequestAdded replayedBulk = find(state, carol);
+        assertTrue(replayedBulk.tpaHere());
+        assertTrue(replayedBulk.bulk());
+        assertEquals(Map.of(carol.uuid(), now), state.cooldowns);
+    }
+
+    @Test
+    void dropsTornTail() throws IOException {
+        RequestJournal journal = journal(false);
+        journal.open();
+        journal.requestAdded(new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS));
+        journal.cooldown(alice.uuid(), Instant.now().getEpochSecond());
+        journal.close();
+
+        // cut the last record (the cooldown) short, as a crash mid-write would
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        RequestJournal.State state = reopen(false);
+        assertEquals(1, state.requests.size());
+        assertTrue(state.cooldowns.isEmpty());
+    }
+
+    @Test
+    void stopsAtCorruptRecord() throws IOException {
+        RequestJournal journal = journal(false);
+        journal.open();
+        journal.requestAdded(new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS));
+        journal.requestAdded(new FabricTPA.TPARequest(bob, carol, false, TIMEOUT_TICKS));
+        journal.close();
+
+        // the first record starts right after the magic, flip a byte of its first uuid
+        try (FileChannel channel = FileChannel.open(file(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long offset = 4 + 4 + 1;
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, offset);
+            one.put(0, (byte) (one.get(0) ^ 0xff)).rewind();
+            channel.write(one, offset);
+        }
+
+        // everything after a bad checksum is dropped, even records that are intact
+        assertTrue(reopen(false).requests.isEmpty());
+    }
+
+    @Test
+    void prunesExpiredRequests() throws InterruptedException {
+        RequestJournal journal = journal(false);
+        journal.open();
+        journal.requestAdded(new FabricTPA.TPARequest(alice, bob, false, 1));
+        journal.requestAdded(new FabricTPA.TPARequest(bob, carol, false, TIMEOUT_TICKS));
+        journal.cooldown(carol.uuid(), Instant.now().getEpochSecond() - COOLDOWN_SECONDS);
+        journal.close();
+        Thread.sleep(100);
+
+        RequestJournal.State state = reopen(false);
+        assertEquals(1, state.requests.size());
+        assertEquals(bob, state.requests.get(0).tFrom());
+        assertTrue(state.cooldowns.isEmpty());
+    }
+
+    @Test
+    void replacesUnknownFormat() throws IOException {
+        Files.write(file(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        RequestJournal journal = journal(false);
+        assertTrue(journal.open().requests.isEmpty());
+        journal.requestAdded(new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS));
+        journal.close();
+
+        assertEquals(1, reopen(false).requests.size());
+    }
+
+    @Test
+    void keepsLongNames() {
+        FabricTPA.PlayerRef longName = new FabricTPA.PlayerRef(UUID.randomUUID(), "\u00e9".repeat(200));
+        RequestJournal journal = journal(false);
+        journal.open();
+        journal.requestAdded(new FabricTPA.TPARequest(longName, bob, false, TIMEOUT_TICKS));
+        journal.close();
+
+        // 400 bytes of UTF-8 are cut to the 255 a length byte can hold, which splits the last character
+        RequestJournal.State state = reopen(false);
+        assertEquals(1, state.requests.size());
+        assertEquals(longName.uuid(), state.requests.get(0).tFrom().uuid());
+        assertTrue(longName.name().startsWith(state.requests.get(0).tFrom().name().substring(0, 127)));
+    }
+
+    private RequestJournal journal(boolean mmap) {
+        return new RequestJournal(file(), LOGGER, mmap, () -> COOLDOWN_SECONDS);
+    }
+
+    private RequestJournal.State reopen(boolean mmap) {
+        RequestJournal journal = journal(mmap);
+        RequestJournal.State state = journal.open();
+        journal.close();
+        return state;
+    }
+
+    private Path file() {
+        return dir.resolve("fabrictpa.journal");
+    }
+
+    private static RequestJournal.RequestAdded find(RequestJournal.State state, FabricTPA.PlayerRef tFrom) {
+        return state.requests.stream().filter(added -> added.tFrom().equals(tFrom)).findFirst().orElseThrow();
+    }
+}
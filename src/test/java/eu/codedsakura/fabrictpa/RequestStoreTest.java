@@ -0,0 +1,88 @@
+package eu.codedsakura.fabrictpa;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestStoreTest {
+    private static final int TIMEOUT_TICKS = 1200;
+
+    private final FabricTPA.PlayerRef alice = new FabricTPA.PlayerRef(UUID.randomUUID(), "Alice");
+    private final FabricTPA.PlayerRef albert = new FabricTPA.PlayerRef(UUID.randomUUID(), "albert");
+    private final FabricTPA.PlayerRef bob = new FabricTPA.PlayerRef(UUID.randomUUID(), "Bob");
+
+    private final PlayerNameIndex names = new PlayerNameIndex();
+    private final RequestStore store = new RequestStore(names);
+
+    @Test
+    void indexesOnlineNamesByPrefix() {
+        online(alice, albert, bob);
+        assertEquals(List.of("albert", "Alice"), names(names.withPrefix("AL")));
+        assertEquals(List.of("Bob"), names(names.withPrefix("b")));
+        assertEquals(3, names.withPrefix("").size());
+        assertTrue(names.withPrefix("c").isEmpty());
+
+        names.remove(albert.uuid());
+        assertEquals(List.of("Alice"), names(names.withPrefix("al")));
+        assertEquals(2, names.size());
+    }
+
+    @Test
+    void tracksRequestsBySenderAndReceiver() {
+        online(alice, albert, bob);
+        // for tpahere the receiving player is the one who teleports
+        FabricTPA.TPARequest toBob = new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS);
+        FabricTPA.TPARequest here = new FabricTPA.TPARequest(albert, bob, true, TIMEOUT_TICKS);
+        store.add(toBob);
+        store.add(here);
+
+        assertTrue(store.contains(toBob));
+        assertSame(here, store.get(bob.uuid(), albert.uuid()));
+        assertEquals(1, store.countOutgoing(alice.uuid()));
+        assertEquals(1, store.countOutgoing(bob.uuid()));
+        assertEquals(2, store.countInvolving(bob.uuid()));
+        assertEquals(List.of("Alice"), List.copyOf(store.getIncomingNames(bob.uuid(), "A")));
+        assertEquals(List.of("albert"), List.copyOf(store.getOutgoingNames(bob.uuid(), "")));
+        assertEquals(2, involvement(bob));
+
+        assertTrue(store.remove(toBob));
+        assertFalse(store.remove(toBob));
+        assertFalse(store.contains(toBob));
+        assertTrue(store.getIncomingNames(bob.uuid(), "").isEmpty());
+        assertTrue(store.getOutgoing(alice.uuid()).isEmpty());
+        assertEquals(1, involvement(bob));
+        assertEquals(0, involvement(alice));
+    }
+
+    @Test
+    void clearResetsInvolvement() {
+        online(alice, bob);
+        store.add(new FabricTPA.TPARequest(alice, bob, false, TIMEOUT_TICKS));
+        store.add(new FabricTPA.TPARequest(bob, alice, false, TIMEOUT_TICKS));
+        assertEquals(2, involvement(alice));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, involvement(alice));
+        assertEquals(0, involvement(bob));
+        assertTrue(store.getIncoming(alice.uuid()).isEmpty());
+    }
+
+    private void online(FabricTPA.PlayerRef... players) {
+        for (FabricTPA.PlayerRef player : players) names.add(player.uuid(), player.name(), store.countInvolving(player.uuid()));
+    }
+
+    private int involvement(FabricTPA.PlayerRef player) {
+        return names.withPrefix(player.name()).stream().filter(entry -> entry.uuid.equals(player.uuid())).findFirst().orElseThrow().involvement;
+    }
+
+    private static List<String> names(Iterable<PlayerNameIndex.Entry> entries) {
+        List<String> result = new ArrayList<>();
+        for (PlayerNameIndex.Entry entry : entries) result.add(entry.name);
+        return result;
+    }
+}
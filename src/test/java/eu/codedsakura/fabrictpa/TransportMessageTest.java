@@ -0,0 +1,92 @@
+package eu.codedsakura.fabrictpa;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransportMessageTest {
+    private final FabricTPA.PlayerRef alice = new FabricTPA.PlayerRef(UUID.randomUUID(), "alice");
+    private final FabricTPA.PlayerRef bob = new FabricTPA.PlayerRef(UUID.randomUUID(), "bob");
+
+    @Test
+    void roundTripsEveryType() {
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(alice, bob, true, 1200);
+        List<TransportMessage> sent = List.of(
+                TransportMessage.playerJoined(alice),
+                TransportMessage.playerLeft(bob.uuid()),
+                TransportMessage.sync(),
+                TransportMessage.request(tr),
+                TransportMessage.of(TransportMessage.ACCEPTED, tr),
+                TransportMessage.of(TransportMessage.DENIED, tr),
+                TransportMessage.of(TransportMessage.CANCELLED, tr),
+                TransportMessage.of(TransportMessage.TIMED_OUT, tr),
+                TransportMessage.of(TransportMessage.ARRIVING, tr));
+
+        List<TransportMessage> received = TransportMessage.decode(TransportMessage.encode("node-1", sent));
+        assertEquals(sent.size(), received.size());
+        for (int i = 0; i < sent.size(); i++) {
+            TransportMessage expected = sent.get(i), actual = received.get(i);
+            // the node is filled in from the batch header
+            assertEquals("node-1", actual.node());
+            assertEquals(new TransportMessage(expected.type(), "node-1", expected.first(), expected.firstName(), expected.second(),
+                    expected.secondName(), expected.tpaHere(), expected.expiresAt()), actual);
+        }
+    }
+
+    @Test
+    void cutsLongNames() {
+        // 3 bytes per character in UTF-8, so the name is well past the 255 byte limit
+        String name = "\u3042".repeat(200);
+        FabricTPA.PlayerRef longName = new FabricTPA.PlayerRef(UUID.randomUUID(), name);
+        FabricTPA.TPARequest tr = new FabricTPA.TPARequest(longName, longName, false, 1200);
+        List<TransportMessage> sent = new ArrayList<>();
+        for (int i = 0; i < 100; i++) sent.add(TransportMessage.request(tr));
+
+        List<TransportMessage> received = TransportMessage.decode(TransportMessage.encode(name, sent));
+        assertEquals(100, received.size());
+        String cut = name.substring(0, 85);
+        assertEquals(255, cut.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(cut, received.get(0).node());
+        assertEquals(cut, received.get(99).firstName());
+        assertEquals(cut, received.get(99).secondName());
+        assertEquals(tr.expiresAt, received.get(99).expiresAt());
+    }
+
+    @Test
+    void rejectsUnknownType() {
+        byte[] batch = TransportMessage.encode("node-1", List.of(TransportMessage.sync()));
+        // the type follows the length-prefixed node name and the message count
+        batch[1 + "node-1".length() + 2] = 42;
+        assertThrows(IllegalArgumentException.class, () -> TransportMessage.decode(batch));
+    }
+
+    @Test
+    void deliversBetweenInProcessNodes() {
+        LoopbackTransport first = LoopbackTransport.inProcess("test-a", LogManager.getLogger("test-a"));
+        LoopbackTransport second = LoopbackTransport.inProcess("test-b", LogManager.getLogger("test-b"));
+        try {
+            first.publish(TransportMessage.playerJoined(alice));
+            first.publish(TransportMessage.playerLeft(alice.uuid()));
+            first.flush();
+
+            List<TransportMessage> received = new ArrayList<>();
+            second.receive(received::add);
+            assertEquals(2, received.size());
+            assertEquals(TransportMessage.PLAYER_JOINED, received.get(0).type());
+            assertEquals("test-a", received.get(0).node());
+            assertEquals(alice, received.get(0).firstRef());
+
+            // nodes don't hear their own messages
+            first.receive(message -> fail("Received own message " + message));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+}
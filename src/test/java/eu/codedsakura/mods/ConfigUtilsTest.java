@@ -0,0 +1,84 @@
+package eu.codedsakura.mods;
+
+import eu.codedsakura.mods.ConfigUtils.*;
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigUtilsTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsTypedValuesAndFallsBackToDefaults() throws IOException {
+        // the double is out of range and the string is missing, so both keep their defaults
+        Files.writeString(file(), "timeout=30\nwarmup=2.5\nsound=true\nratio=7.0\n");
+        ConfigUtils config = config();
+
+        assertEquals(30, config.getInt(config.key("timeout", Integer.class)));
+        assertEquals(2.5, config.getDouble(config.key("warmup", Double.class)));
+        assertTrue(config.getBoolean(config.key("sound", Boolean.class)));
+        assertEquals(0.5, config.getDouble(config.key("ratio", Double.class)));
+        assertEquals("secret", config.get(config.key("name", String.class)));
+        assertEquals(30, config.getValue("timeout"));
+        assertNull(config.getValue("missing"));
+    }
+
+    @Test
+    void writesBackAnIncompleteFile() throws IOException {
+        Files.writeString(file(), "timeout=30\n");
+        config();
+
+        Properties props = new Properties();
+        try (InputStream input = Files.newInputStream(file())) {
+            props.load(input);
+        }
+        assertEquals("30", props.getProperty("timeout"));
+        assertEquals("5.0", props.getProperty("warmup"));
+        assertEquals("secret", props.getProperty("name"));
+        assertEquals("Seconds until a request expires", props.getProperty("timeout.comment"));
+        assertFalse(Files.exists(dir.resolve("test.properties.tmp")));
+    }
+
+    @Test
+    void keysAreCheckedAgainstTheDeclaredType() {
+        ConfigUtils config = config();
+        assertThrows(IllegalArgumentException.class, () -> config.key("timeout", Double.class));
+        assertThrows(IllegalArgumentException.class, () -> config.key("missing", Integer.class));
+    }
+
+    @Test
+    void snapshotsDontSeeLaterReads() throws IOException {
+        ConfigUtils config = config();
+        ConfigKey<Integer> timeout = config.key("timeout", Integer.class);
+        Snapshot before = config.getSnapshot();
+
+        Files.writeString(file(), "timeout=90\n");
+        config.read();
+        assertEquals(60, before.getInt(timeout));
+        assertEquals(90, config.getSnapshot().getInt(timeout));
+        assertEquals(90, config.getInt(timeout));
+    }
+
+    private ConfigUtils config() {
+        return new ConfigUtils(file().toFile(), LogManager.getLogger("ConfigUtilsTest"), List.of(
+                new IntegerConfigValue("timeout", 60, new IntegerConfigValue.IntLimits(0), "Seconds until a request expires", null),
+                new DoubleConfigValue("warmup", 5d, new DoubleConfigValue.DoubleLimits(0), null),
+                new BooleanConfigValue("sound", false, null),
+                new DoubleConfigValue("ratio", 0.5, new DoubleConfigValue.DoubleLimits(0, 1), null),
+                new StringConfigValue("name", "secret", null)));
+    }
+
+    private Path file() {
+        return dir.resolve("test.properties");
+    }
+}
@@ -0,0 +1,74 @@
+package eu.codedsakura.mods;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    private final RateLimiter limiter = new RateLimiter();
+
+    @Test
+    void rejectsPastTheBurstAndRefillsOverTime() {
+        int slot = limiter.acquireSlot(0, 3);
+        for (int i = 0; i < 3; i++) assertTrue(limiter.tryAcquire(slot, 0, 3, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, 0, 3, 1, 0, 0));
+
+        // half a token isn't enough, a whole one is
+        assertFalse(limiter.tryAcquire(slot, SECOND / 2, 3, 1, 0, 0));
+        assertTrue(limiter.tryAcquire(slot, SECOND, 3, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, SECOND, 3, 1, 0, 0));
+
+        // a long pause only refills up to the burst
+        long later = 100 * SECOND;
+        for (int i = 0; i < 3; i++) assertTrue(limiter.tryAcquire(slot, later, 3, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, later, 3, 1, 0, 0));
+    }
+
+    @Test
+    void notifiesOncePerRejectionStreak() {
+        int slot = limiter.acquireSlot(0, 1);
+        assertTrue(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+        assertTrue(limiter.shouldNotify(slot));
+        assertFalse(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+        assertFalse(limiter.shouldNotify(slot));
+
+        assertTrue(limiter.tryAcquire(slot, SECOND, 1, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, SECOND, 1, 1, 0, 0));
+        assertTrue(limiter.shouldNotify(slot));
+    }
+
+    @Test
+    void zeroRateDisablesTheBucket() {
+        int slot = limiter.acquireSlot(0, 1);
+        for (int i = 0; i < 100; i++) assertTrue(limiter.tryAcquire(slot, 0, 1, 0, 0, 0));
+    }
+
+    @Test
+    void globalBucketIsShared() {
+        int first = limiter.acquireSlot(0, 10), second = limiter.acquireSlot(0, 10);
+        assertTrue(limiter.tryAcquire(first, 0, 10, 1, 2, 1));
+        assertTrue(limiter.tryAcquire(second, 0, 10, 1, 2, 1));
+        assertFalse(limiter.tryAcquire(first, 0, 10, 1, 2, 1));
+        assertFalse(limiter.tryAcquire(second, 0, 10, 1, 2, 1));
+
+        // a global rejection doesn't take a token from the player's own bucket
+        assertTrue(limiter.tryAcquire(first, SECOND, 10, 0, 2, 1));
+        assertFalse(limiter.tryAcquire(second, SECOND, 10, 0, 2, 1));
+    }
+
+    @Test
+    void releasedSlotsAreReusedWithAFullBucket() {
+        int[] slots = new int[40];
+        for (int i = 0; i < slots.length; i++) slots[i] = limiter.acquireSlot(0, 1);
+        int slot = slots[7];
+        assertTrue(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+        assertFalse(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+
+        limiter.releaseSlot(slot);
+        assertEquals(slot, limiter.acquireSlot(0, 1));
+        assertTrue(limiter.tryAcquire(slot, 0, 1, 1, 0, 0));
+    }
+}
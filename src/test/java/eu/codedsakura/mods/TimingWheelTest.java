@@ -0,0 +1,81 @@
+package eu.codedsakura.mods;
+
+import org.apache.logging.log4j.LogManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+    private final TimingWheel wheel = new TimingWheel(LogManager.getLogger("TimingWheelTest"));
+
+    @Test
+    void firesOnTheDeadlineTickAcrossLevels() {
+        // just below and above each level boundary, plus one past what the wheel covers without cascading from the top
+        long[] delays = {1, 2, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 262145, 16777215, 16777216, 16777300};
+        List<long[]> fired = new ArrayList<>();
+        for (long delay : delays) wheel.schedule(delay, () -> fired.add(new long[]{delay, wheel.getCurrentTick()}));
+
+        long last = delays[delays.length - 1];
+        for (long tick = 0; tick < last; tick++) wheel.tick();
+
+        assertEquals(delays.length, fired.size());
+        for (long[] entry : fired) assertEquals(entry[0], entry[1], "delay " + entry[0]);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void matchesRandomSchedule() {
+        Random random = new Random(42);
+        int ticks = 20_000;
+        long[] expected = new long[ticks + 1];
+        long[] actual = new long[ticks + 1];
+        for (int i = 0; i < 5000; i++) {
+            long delay = 1 + random.nextInt(ticks);
+            long deadline = wheel.getCurrentTick() + delay;
+            expected[(int) deadline]++;
+            wheel.schedule(delay, () -> actual[(int) wheel.getCurrentTick()]++);
+        }
+        for (int tick = 0; tick < ticks; tick++) wheel.tick();
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void cancelledEntriesDontFire() {
+        int[] fired = {0};
+        TimingWheel.Entry kept = wheel.schedule(100, () -> fired[0]++);
+        TimingWheel.Entry cancelled = wheel.schedule(100, () -> fail("Cancelled entry fired"));
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertFalse(cancelled.isPending());
+        assertEquals(1, wheel.size());
+        assertEquals(100, kept.getRemainingTicks());
+
+        for (int tick = 0; tick < 100; tick++) wheel.tick();
+        assertEquals(1, fired[0]);
+        assertFalse(kept.isPending());
+        assertFalse(kept.cancel());
+    }
+
+    @Test
+    void failingTaskDoesntStopTheTick() {
+        int[] fired = {0};
+        wheel.schedule(1, () -> {
+            throw new IllegalStateException("boom");
+        });
+        wheel.schedule(1, () -> fired[0]++);
+        wheel.tick();
+        assertEquals(1, fired[0]);
+    }
+
+    @Test
+    void clearDropsEverything() {
+        for (int delay = 1; delay < 10_000; delay += 7) wheel.schedule(delay, () -> fail("Cleared entry fired"));
+        wheel.clear();
+        assertEquals(0, wheel.size());
+        for (int tick = 0; tick < 10_000; tick++) wheel.tick();
+    }
+}